@@ -17,6 +17,7 @@ package not.alexa.vysper;
 
 import org.apache.vysper.storage.StorageProviderRegistry;
 import org.apache.vysper.xmpp.authorization.SASLMechanism;
+import org.apache.vysper.xmpp.metrics.MetricsSink;
 import org.apache.vysper.xmpp.server.Endpoint;
 import org.apache.vysper.xmpp.state.resourcebinding.ResourceRegistry;
 
@@ -40,6 +41,52 @@ public class MultiHostXMPPServer {
     	return saslDomain;
     }
 
+    /**
+     * Set the sink receiving the stage latencies (decode, processing, delivery, write) of all domains.
+     * Use a {@link org.apache.vysper.xmpp.metrics.HistogramMetricsSink} to get p50/p99/p999 per stage, stanza kind and domain.
+     * 
+     * @param sink the sink
+     * @return this server
+     */
+    public MultiHostXMPPServer setMetricsSink(MetricsSink sink) {
+    	server.setMetricsSink(sink);
+    	return this;
+    }
+
+    /**
+     * Set the number of delivery lanes shared by all domains of this server.
+     * 
+     * @param laneCount the number of lanes
+     * @return this server
+     */
+    public MultiHostXMPPServer setRelayLaneCount(int laneCount) {
+    	server.setRelayLaneCount(laneCount);
+    	return this;
+    }
+
+    /**
+     * Set the number of waiting stanzas a delivery lane can take before the overload policy of the
+     * domain applies.
+     * 
+     * @param capacity the capacity of a lane
+     * @return this server
+     */
+    public MultiHostXMPPServer setRelayLaneCapacity(int capacity) {
+    	server.setRelayLaneCapacity(capacity);
+    	return this;
+    }
+
+    /**
+     * Deliver stanzas on virtual threads instead of a fixed pool of platform threads.
+     * 
+     * @param virtualThreads <code>true</code> to enable virtual thread delivery
+     * @return this server
+     */
+    public MultiHostXMPPServer setVirtualThreadDelivery(boolean virtualThreads) {
+    	server.setVirtualThreadDelivery(virtualThreads);
+    	return this;
+    }
+
     public void addEndpoint(Endpoint endpoint) {
         server.addEndpoint(endpoint);
     }
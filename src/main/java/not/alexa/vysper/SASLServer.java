@@ -23,6 +23,8 @@ import java.util.Map;
 
 import org.apache.vysper.mina.MultiHostEndpoint;
 import org.apache.vysper.storage.StorageProviderRegistry;
+import org.apache.vysper.xmpp.delivery.inbound.RecipientOrderedExecutor;
+import org.apache.vysper.xmpp.metrics.MetricsSink;
 import org.apache.vysper.xmpp.server.Endpoint;
 import org.apache.vysper.xmpp.server.ServerRuntimeContextProvider;
 import org.apache.vysper.xmpp.state.resourcebinding.ResourceRegistry;
@@ -30,6 +32,11 @@ import org.apache.vysper.xmpp.state.resourcebinding.ResourceRegistry;
 public class SASLServer {
     private final List<MultiHostEndpoint> endpoints = new ArrayList<MultiHostEndpoint>();
     private final Map<String,XMPPSASLDomain> domains=new HashMap<>();
+    private int relayLaneCount=-1;
+    private boolean virtualThreadDelivery;
+    private int relayLaneCapacity=-1;
+    private RecipientOrderedExecutor relayExecutor;
+    private MetricsSink metricsSink;
     
     public SASLServer() {
     }
@@ -38,6 +45,9 @@ public class SASLServer {
     	XMPPSASLDomain context=domains.get(serverDomain);
     	if(context==null) {
     		context=new XMPPSASLDomain(serverDomain);
+    		if(metricsSink!=null) {
+    			context.setMetricsSink(metricsSink);
+    		}
     		domains.put(serverDomain, context);
     	}
     	return context;
@@ -51,10 +61,75 @@ public class SASLServer {
     	}
     }
     
+    /**
+     * Set the number of delivery lanes of the relay executor shared by all domains.
+     * 
+     * @param laneCount the number of lanes (defaults to {@link RecipientOrderedExecutor#getDefaultLaneCount(boolean)})
+     */
+    public void setRelayLaneCount(int laneCount) {
+    	if(relayExecutor!=null) {
+    		throw new IllegalStateException("Server already started. Cannot change relay lane count.");
+    	}
+    	relayLaneCount=laneCount;
+    }
+    
+    /**
+     * Deliver the stanzas of all domains on virtual threads instead of a fixed pool of platform threads.
+     * 
+     * @param virtualThreads <code>true</code> to enable virtual thread delivery
+     */
+    public void setVirtualThreadDelivery(boolean virtualThreads) {
+    	if(relayExecutor!=null) {
+    		throw new IllegalStateException("Server already started. Cannot change delivery mode.");
+    	}
+    	virtualThreadDelivery=virtualThreads;
+    }
+    
+    /**
+     * Set the number of waiting stanzas a delivery lane can take before the overload policy of the
+     * domain applies.
+     * 
+     * @param capacity the capacity of a lane (unbounded by default)
+     */
+    public void setRelayLaneCapacity(int capacity) {
+    	if(relayExecutor!=null) {
+    		relayExecutor.setLaneCapacity(capacity);
+    	}
+    	relayLaneCapacity=capacity;
+    }
+    
+    /**
+     * Set the sink receiving the stage latencies of the stanza pipeline of all domains. The stages are
+     * tagged with the domain.
+     * 
+     * @param sink the sink (<code>null</code> switches off measuring)
+     */
+    public synchronized void setMetricsSink(MetricsSink sink) {
+    	metricsSink=sink;
+    	for(XMPPSASLDomain domain:domains.values()) {
+    		domain.setMetricsSink(sink);
+    	}
+    }
+    
+    /**
+     * 
+     * @return the relay executor shared by all domains (<code>null</code> if the server is not started). The executor
+     * reports the number of submissions per domain.
+     */
+    public RecipientOrderedExecutor getRelayExecutor() {
+    	return relayExecutor;
+    }
+    
     public void start(StorageProviderRegistry storageProviderRegistry,ResourceRegistry resourceRegistry) throws IOException {
     	ServerRuntimeContextProvider contextProvider=new ServerRuntimeContextProvider();
+    	relayExecutor=relayLaneCount>0
+    			?RecipientOrderedExecutor.create(relayLaneCount,virtualThreadDelivery)
+    			:RecipientOrderedExecutor.create(virtualThreadDelivery);
+    	if(relayLaneCapacity>0) {
+    		relayExecutor.setLaneCapacity(relayLaneCapacity);
+    	}
         for(Map.Entry<String,XMPPSASLDomain> domain:domains.entrySet()) {
-        	contextProvider.add(domain.getValue().start(contextProvider,storageProviderRegistry, resourceRegistry));
+        	contextProvider.add(domain.getValue().start(contextProvider,storageProviderRegistry, resourceRegistry,relayExecutor));
         }
         if (endpoints.size() == 0) {
             throw new IllegalStateException("server must have at least one endpoint");
@@ -71,5 +146,8 @@ public class SASLServer {
         for(XMPPSASLDomain domain:domains.values()) {
         	domain.stop();
         }
+        if(relayExecutor!=null) {
+        	relayExecutor.shutdown();
+        }
     }
 }
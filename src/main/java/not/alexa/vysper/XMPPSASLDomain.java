@@ -32,6 +32,9 @@ import org.apache.vysper.xmpp.cryptography.BogusTrustManagerFactory;
 import org.apache.vysper.xmpp.cryptography.InputStreamBasedTLSContextFactory;
 import org.apache.vysper.xmpp.delivery.OfflineStanzaReceiver;
 import org.apache.vysper.xmpp.delivery.inbound.DeliveringInternalInboundStanzaRelay;
+import org.apache.vysper.xmpp.delivery.inbound.OverloadPolicy;
+import org.apache.vysper.xmpp.delivery.inbound.RecipientOrderedExecutor;
+import org.apache.vysper.xmpp.metrics.MetricsSink;
 import org.apache.vysper.xmpp.modules.Module;
 import org.apache.vysper.xmpp.modules.extension.xep0092_software_version.SoftwareVersionModule;
 import org.apache.vysper.xmpp.modules.extension.xep0119_xmppping.XmppPingModule;
@@ -53,6 +56,13 @@ public class XMPPSASLDomain {
     private InputStream tlsCertificate;
     private String tlsCertificatePassword;
     private List<Module> modules=new ArrayList<Module>();
+    private int relayLaneCount=-1;
+    private boolean virtualThreadDelivery;
+    private int relayLaneCapacity=-1;
+    private OverloadPolicy overloadPolicy=OverloadPolicy.SUSPEND_READS;
+    private RecipientOrderedExecutor privateRelayExecutor;
+    private DeliveringInternalInboundStanzaRelay stanzaRelay;
+    private MetricsSink metricsSink=MetricsSink.NONE;
     
     public XMPPSASLDomain(String serverDomain) {
     	this.serverDomain=serverDomain;
@@ -60,7 +70,20 @@ public class XMPPSASLDomain {
         modules.add(new RosterModule());
     }
 
+    /**
+     * Start the domain with a private relay executor (using the configured lane count).
+     */
     public ServerRuntimeContext start(ServerRuntimeContextProvider contextProvider,StorageProviderRegistry storageProviderRegistry,ResourceRegistry resourceRegistry) throws IOException {
+    	return start(contextProvider,storageProviderRegistry,resourceRegistry,null);
+    }
+
+    /**
+     * Start the domain.
+     * 
+     * @param relayExecutor the (shared) executor delivering the stanzas of this domain. If <code>null</code>, a private
+     * executor using the configured lane count and delivery mode is created.
+     */
+    public ServerRuntimeContext start(ServerRuntimeContextProvider contextProvider,StorageProviderRegistry storageProviderRegistry,ResourceRegistry resourceRegistry,RecipientOrderedExecutor relayExecutor) throws IOException {
         BogusTrustManagerFactory bogusTrustManagerFactory = new BogusTrustManagerFactory();
         InputStreamBasedTLSContextFactory tlsContextFactory = new InputStreamBasedTLSContextFactory(tlsCertificate);
         tlsContextFactory.setPassword(tlsCertificatePassword);
@@ -70,8 +93,17 @@ public class XMPPSASLDomain {
         AccountManagement accountManagement = (AccountManagement) storageProviderRegistry
                 .retrieve(AccountManagement.class);
         OfflineStanzaReceiver offlineReceiver = (OfflineStanzaReceiver) storageProviderRegistry.retrieve(OfflineStorageProvider.class);
-        DeliveringInternalInboundStanzaRelay stanzaRelay = new DeliveringInternalInboundStanzaRelay(serverEntity,
-                resourceRegistry, accountManagement,offlineReceiver);
+        if(relayExecutor==null) {
+        	privateRelayExecutor=relayLaneCount>0
+        			?RecipientOrderedExecutor.create(relayLaneCount,virtualThreadDelivery)
+        			:RecipientOrderedExecutor.create(virtualThreadDelivery);
+        	if(relayLaneCapacity>0) {
+        		privateRelayExecutor.setLaneCapacity(relayLaneCapacity);
+        	}
+        	relayExecutor=privateRelayExecutor;
+        }
+        stanzaRelay = new DeliveringInternalInboundStanzaRelay(serverEntity,resourceRegistry, accountManagement,offlineReceiver,relayExecutor);
+        stanzaRelay.setOverloadPolicy(overloadPolicy);
         List<HandlerDictionary> dictionaries = new ArrayList<HandlerDictionary>();
         addCoreDictionaries(dictionaries);
 
@@ -82,6 +114,7 @@ public class XMPPSASLDomain {
                 dictionaries, resourceRegistry);
         serverRuntimeContext.setStorageProviderRegistry(storageProviderRegistry);
         serverRuntimeContext.setTlsContextFactory(tlsContextFactory);
+        serverRuntimeContext.setMetricsSink(metricsSink);
         
         for(Module module:modules) {
         	serverRuntimeContext.addModule(module);
@@ -94,6 +127,7 @@ public class XMPPSASLDomain {
     private void addCoreDictionaries(List<HandlerDictionary> dictionaries) {
         dictionaries.add(new org.apache.vysper.xmpp.modules.core.base.BaseStreamStanzaDictionary());
         dictionaries.add(new org.apache.vysper.xmpp.modules.core.starttls.StartTLSStanzaDictionary());
+        dictionaries.add(new org.apache.vysper.xmpp.modules.core.compression.CompressionStanzaDictionary());
         dictionaries.add(new org.apache.vysper.xmpp.modules.core.sasl.SASLStanzaDictionary());
         dictionaries.add(new org.apache.vysper.xmpp.modules.core.bind.BindResourceDictionary());
         dictionaries.add(new org.apache.vysper.xmpp.modules.core.session.SessionStanzaDictionary());
@@ -102,6 +136,87 @@ public class XMPPSASLDomain {
 
     public void stop() {
         serverRuntimeContext.getServerConnectorRegistry().close();
+        if(privateRelayExecutor!=null) {
+        	privateRelayExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Set the number of delivery lanes of the stanza relay. Stanzas for the same bare JID are
+     * always delivered through the same lane (and therefore in order).
+     * <br>The lane count is ignored if the domain is started with a shared executor.
+     * 
+     * @param laneCount the number of lanes (defaults to {@link RecipientOrderedExecutor#getDefaultLaneCount(boolean)})
+     * @return this domain
+     */
+    public XMPPSASLDomain setRelayLaneCount(int laneCount) {
+		if(serverRuntimeContext!=null) {
+			throw new IllegalStateException("Domain already started. Cannot change relay lane count.");
+		}
+    	relayLaneCount=laneCount;
+    	return this;
+    }
+    
+    /**
+     * Deliver stanzas on virtual threads instead of a fixed pool of platform threads. 
+     * <br>The mode is ignored if the domain is started with a shared executor.
+     * 
+     * @param virtualThreads <code>true</code> to enable virtual thread delivery
+     * @return this domain
+     */
+    public XMPPSASLDomain setVirtualThreadDelivery(boolean virtualThreads) {
+		if(serverRuntimeContext!=null) {
+			throw new IllegalStateException("Domain already started. Cannot change delivery mode.");
+		}
+    	virtualThreadDelivery=virtualThreads;
+    	return this;
+    }
+    
+    /**
+     * Set the number of waiting stanzas a delivery lane can take before the overload policy applies.
+     * <br>The capacity is ignored if the domain is started with a shared executor.
+     * 
+     * @param capacity the capacity of a lane (unbounded by default)
+     * @return this domain
+     */
+    public XMPPSASLDomain setRelayLaneCapacity(int capacity) {
+		if(serverRuntimeContext!=null) {
+			throw new IllegalStateException("Domain already started. Cannot change relay lane capacity.");
+		}
+    	relayLaneCapacity=capacity;
+    	return this;
+    }
+    
+    /**
+     * Set the policy applied if the delivery lane of a receiver is saturated.
+     * 
+     * @param policy the overload policy (defaults to {@link OverloadPolicy#SUSPEND_READS})
+     * @return this domain
+     */
+    public XMPPSASLDomain setRelayOverloadPolicy(OverloadPolicy policy) {
+    	overloadPolicy=policy;
+    	if(stanzaRelay!=null) {
+    		stanzaRelay.setOverloadPolicy(policy);
+    	}
+    	return this;
+    }
+    
+    /**
+     * Set the sink receiving the stage latencies of the stanza pipeline of this domain.
+     * 
+     * @param sink the sink (<code>null</code> or {@link MetricsSink#NONE} switches off measuring)
+     * @return this domain
+     */
+    public XMPPSASLDomain setMetricsSink(MetricsSink sink) {
+    	metricsSink=sink==null?MetricsSink.NONE:sink;
+    	if(serverRuntimeContext!=null) {
+    		serverRuntimeContext.setMetricsSink(metricsSink);
+    	}
+    	return this;
+    }
+    
+    public DeliveringInternalInboundStanzaRelay getStanzaRelay() {
+    	return stanzaRelay;
     }
 
 	public XMPPSASLDomain addModule(Module module) {
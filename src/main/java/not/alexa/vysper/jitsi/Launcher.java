@@ -60,6 +60,11 @@ public class Launcher {
 	private static final int BOSH_PORT=5280;
 	private static final int EXTERNAL_COMPONENT_PORT=5347;
 	
+	/**
+	 * Deliver stanzas on virtual threads (if supported by the runtime).
+	 */
+	private static final boolean VIRTUAL_THREAD_DELIVERY=false;
+	
     public static void main(String[] args) throws Exception {
     	String domain=JITSI_DEFAULT_DOMAIN;
     	if(args.length>0) {
@@ -72,7 +77,8 @@ public class Launcher {
         AccountManagement accountManagement = (AccountManagement) providerRegistry.retrieve(AccountManagement.class);
         accountManagement.addUser(EntityImpl.parseUnchecked("focus@auth."+domain), YOURSECRET3);
 
-        MultiHostXMPPServer server = new MultiHostXMPPServer(providerRegistry);
+        MultiHostXMPPServer server = new MultiHostXMPPServer(providerRegistry)
+        		.setVirtualThreadDelivery(VIRTUAL_THREAD_DELIVERY);
         XMPPSASLDomain domainContext1=server.createSASLDomain(domain,new Anonymous())
         		.setTLSCertificateInfo(resolve(domain+".p12"),KEYSTORE_JITSI_DOMAIN_SECRET)
         		.loadDefaultModules();
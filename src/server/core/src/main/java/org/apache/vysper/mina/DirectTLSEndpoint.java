@@ -0,0 +1,52 @@
+package org.apache.vysper.mina;
+
+import java.io.IOException;
+
+import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
+import org.apache.vysper.xmpp.server.ServerRuntimeContextProvider;
+
+/**
+ * An endpoint starting TLS immediately on connect (XEP-0368). The TLS context is selected by the server name indicated
+ * by the client (see {@link DirectTLSFilter}) and the sessions start encrypted, that is the stream features offer
+ * SASL right away and the STARTTLS round trip is saved.
+ *
+ * @author notalexa
+ *
+ */
+public class DirectTLSEndpoint extends TCPEndpoint {
+	public static final int DEFAULT_PORT=5223;
+
+	private ServerRuntimeContextProvider contextProvider;
+	private String defaultDomain;
+
+	public DirectTLSEndpoint() {
+		this(DEFAULT_PORT);
+	}
+
+	public DirectTLSEndpoint(int port) {
+		setPort(port);
+	}
+
+	/**
+	 * Must be called before the endpoint is started.
+	 *
+	 * @param defaultDomain the domain whose TLS context is used if the client doesn't indicate a (known) server name
+	 */
+	public void setDefaultDomain(String defaultDomain) {
+		this.defaultDomain=defaultDomain;
+	}
+
+	@Override
+	public void start(ServerRuntimeContextProvider contextProvider) throws IOException {
+		this.contextProvider=contextProvider;
+		super.start(contextProvider);
+	}
+
+	@Override
+	protected void addTransportFilters(DefaultIoFilterChainBuilder filterChainBuilder) {
+		if(contextProvider==null) {
+			throw new IllegalStateException("direct TLS requires a context provider");
+		}
+		filterChainBuilder.addLast("directTLS",new DirectTLSFilter(contextProvider,this,defaultDomain));
+	}
+}
@@ -0,0 +1,201 @@
+package org.apache.vysper.mina;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.ssl.SslFilter;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.ServerRuntimeContextProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts TLS immediately on connect (XEP-0368). The filter holds back the received bytes until the first TLS record
+ * (containing the <code>ClientHello</code>) is complete, selects the {@link SSLContext} of the domain named in the
+ * server name indication (SNI) extension and replaces itself with an {@link SslFilter} which is fed with the held back
+ * bytes. Without SNI (or if the domain is unknown), the context of the default domain is used. If there is none, the
+ * session is closed.
+ * <br>The selected domain is stored in the session attribute {@link #ATTRIBUTE_TLS_DOMAIN}, the stream must be opened for
+ * this domain (see {@link XmppIoHandlerAdapter}).
+ * <br>The filter must be the first filter of the chain.
+ *
+ * @author notalexa
+ *
+ */
+public class DirectTLSFilter extends IoFilterAdapter {
+	public static final String ATTRIBUTE_TLS_DOMAIN="vysperTLSDomain";
+
+	private static final Logger LOG=LoggerFactory.getLogger(DirectTLSFilter.class);
+	private static final AttributeKey HELLO=new AttributeKey(DirectTLSFilter.class,"hello");
+	private static final int RECORD_HEADER=5;
+	private static final int MAX_RECORD=16*1024;
+	private static final int CONTENT_HANDSHAKE=0x16;
+	private static final int HANDSHAKE_CLIENT_HELLO=1;
+	private static final int EXTENSION_SERVER_NAME=0;
+	private static final int NAME_TYPE_HOST_NAME=0;
+
+	private final ServerRuntimeContextProvider contextProvider;
+	private final MultiHostEndpoint endpoint;
+	private final String defaultDomain;
+
+	/**
+	 *
+	 * @param contextProvider the provider of the domains
+	 * @param endpoint the endpoint (a context must be allowed for the endpoint to be selected)
+	 * @param defaultDomain the domain used if the client doesn't indicate a (known) server name (or <code>null</code>)
+	 */
+	public DirectTLSFilter(ServerRuntimeContextProvider contextProvider,MultiHostEndpoint endpoint,String defaultDomain) {
+		this.contextProvider=contextProvider;
+		this.endpoint=endpoint;
+		this.defaultDomain=defaultDomain;
+	}
+
+	@Override
+	public void messageReceived(NextFilter nextFilter, IoSession session, Object message) throws Exception {
+		if(!(message instanceof IoBuffer)) {
+			nextFilter.messageReceived(session, message);
+			return;
+		}
+		IoBuffer hello=(IoBuffer)session.getAttribute(HELLO);
+		if(hello==null) {
+			hello=(IoBuffer)message;
+		} else {
+			hello.put((IoBuffer)message);
+			hello.flip();
+		}
+		int start=hello.position();
+		if(hello.remaining()>=RECORD_HEADER) {
+			int length=hello.getUnsignedShort(start+3);
+			if(hello.getUnsigned(start)!=CONTENT_HANDSHAKE||hello.getUnsigned(start+1)!=3||length>MAX_RECORD) {
+				LOG.info("no TLS handshake from {}, closing session",session.getRemoteAddress());
+				session.removeAttribute(HELLO);
+				session.close(true);
+				return;
+			}
+			if(hello.remaining()>=RECORD_HEADER+length) {
+				session.removeAttribute(HELLO);
+				startTLS(nextFilter,session,hello,getServerName(hello,start+RECORD_HEADER,start+RECORD_HEADER+length));
+				return;
+			}
+		}
+		// wait for the rest of the record
+		if(hello==message) {
+			hello=IoBuffer.allocate(RECORD_HEADER+MAX_RECORD).setAutoExpand(true).put(hello);
+			session.setAttribute(HELLO,hello);
+		} else {
+			hello.position(hello.limit());
+			hello.limit(hello.capacity());
+		}
+	}
+
+	@Override
+	public void sessionClosed(NextFilter nextFilter, IoSession session) throws Exception {
+		session.removeAttribute(HELLO);
+		nextFilter.sessionClosed(session);
+	}
+
+	private void startTLS(NextFilter nextFilter,IoSession session,IoBuffer hello,String serverName) {
+		String domain=serverName;
+		SSLContext sslContext=resolve(domain);
+		if(sslContext==null&&defaultDomain!=null) {
+			domain=defaultDomain;
+			sslContext=resolve(domain);
+		}
+		if(sslContext==null) {
+			LOG.info("no TLS context for server name {} requested by {}, closing session",serverName,session.getRemoteAddress());
+			session.close(true);
+			return;
+		}
+		SslFilter sslFilter=new SslFilter(sslContext);
+		sslFilter.setUseClientMode(false);
+		session.setAttribute(ATTRIBUTE_TLS_DOMAIN,domain);
+		// the ssl filter takes over. no SESSION_SECURED notification is requested, the session starts encrypted.
+		IoFilterChain.Entry entry=session.getFilterChain().getEntry(this);
+		entry.addAfter("sslFilter",sslFilter);
+		nextFilter.messageReceived(session, hello);
+		entry.remove();
+	}
+
+	private SSLContext resolve(String domain) {
+		if(domain==null) {
+			return null;
+		}
+		ServerRuntimeContext context=contextProvider.resolveDomainContext(domain);
+		return context!=null&&endpoint.isContextAllowed(context)?context.getSslContext():null;
+	}
+
+	/**
+	 * Extract the host name of the server name indication of the <code>ClientHello</code> in the record.
+	 *
+	 * @param buffer the buffer
+	 * @param p the start of the record fragment
+	 * @param end the end of the record fragment
+	 * @return the server name or <code>null</code>
+	 */
+	static String getServerName(IoBuffer buffer,int p,int end) {
+		if(p+4>end||buffer.getUnsigned(p)!=HANDSHAKE_CLIENT_HELLO) {
+			return null;
+		}
+		// a hello exceeding the record is parsed as far as available
+		end=Math.min(end,p+4+((buffer.getUnsignedShort(p+1)<<8)|buffer.getUnsigned(p+3)));
+		// handshake header, version and random
+		p+=4+2+32;
+		// session id
+		if(p+1>end) {
+			return null;
+		}
+		p+=1+buffer.getUnsigned(p);
+		// cipher suites
+		if(p+2>end) {
+			return null;
+		}
+		p+=2+buffer.getUnsignedShort(p);
+		// compression methods
+		if(p+1>end) {
+			return null;
+		}
+		p+=1+buffer.getUnsigned(p);
+		if(p+2>end) {
+			return null;
+		}
+		end=Math.min(end,p+2+buffer.getUnsignedShort(p));
+		p+=2;
+		while(p+4<=end) {
+			int type=buffer.getUnsignedShort(p);
+			int length=buffer.getUnsignedShort(p+2);
+			p+=4;
+			if(type==EXTENSION_SERVER_NAME) {
+				if(p+2>end) {
+					return null;
+				}
+				int listEnd=Math.min(Math.min(end,p+length),p+2+buffer.getUnsignedShort(p));
+				p+=2;
+				while(p+3<=listEnd) {
+					int nameType=buffer.getUnsigned(p);
+					int nameLength=buffer.getUnsignedShort(p+1);
+					p+=3;
+					if(p+nameLength>listEnd) {
+						return null;
+					}
+					if(nameType==NAME_TYPE_HOST_NAME) {
+						byte[] name=new byte[nameLength];
+						for(int i=0;i<nameLength;i++) {
+							name[i]=buffer.get(p+i);
+						}
+						return new String(name,StandardCharsets.US_ASCII).toLowerCase();
+					}
+					p+=nameLength;
+				}
+				return null;
+			}
+			p+=length;
+		}
+		return null;
+	}
+}
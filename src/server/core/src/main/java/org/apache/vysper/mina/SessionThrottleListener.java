@@ -0,0 +1,26 @@
+package org.apache.vysper.mina;
+
+import org.apache.vysper.xmpp.server.SessionContext;
+
+/**
+ * Notified whenever reading from a session is suspended because the stanza relay is saturated (and
+ * resumed afterwards).
+ * 
+ * @author notalexa
+ *
+ */
+public interface SessionThrottleListener {
+	/** 
+	 * Called, whenever reading from a session is suspended.
+	 * @param sessionContext the session context
+	 */
+	public default void onSessionThrottled(SessionContext sessionContext) {
+	}
+
+	/** 
+	 * Called, whenever reading from a throttled session is resumed.
+	 * @param sessionContext the session context
+	 */
+	public default void onSessionResumed(SessionContext sessionContext) {
+	}
+}
@@ -0,0 +1,30 @@
+package org.apache.vysper.mina;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.vysper.xmpp.server.SessionContext;
+
+/**
+ * Stamps the time the first buffer of a stanza is read, if the domain of the session measures stage latencies.
+ * The IO handler takes the stamp as the start of the decode stage. The filter must be placed before the codec.
+ * <br>Since a buffer may contain the end of a stanza and the start of the next one, the stamp is taken from the first buffer
+ * read after the previous stanza was decoded.
+ * 
+ * @author notalexa
+ *
+ */
+public class StageTimingFilter extends IoFilterAdapter {
+	public static final String ATTRIBUTE_VYSPER_RECEIVED="vysperReceived";
+
+	@Override
+	public void messageReceived(NextFilter nextFilter, IoSession session, Object message) throws Exception {
+		if(message instanceof IoBuffer) {
+			SessionContext sessionContext=(SessionContext)session.getAttribute(XmppIoHandlerAdapter.ATTRIBUTE_VYSPER_SESSION);
+			if(sessionContext!=null&&sessionContext.getServerRuntimeContext().getMetricsSink().isEnabled()) {
+				session.setAttributeIfAbsent(ATTRIBUTE_VYSPER_RECEIVED, System.nanoTime());
+			}
+		}
+		nextFilter.messageReceived(session, message);
+	}
+}
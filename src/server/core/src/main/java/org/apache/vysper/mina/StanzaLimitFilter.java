@@ -0,0 +1,274 @@
+package org.apache.vysper.mina;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Enforces limits on received stanzas before they reach the XMPP decoder: the number of bytes per stanza, the depth of
+ * elements inside a stanza and the number of attributes per element. The filter scans the raw bytes with a minimal
+ * tokenizer (tags, attribute values, processing instructions and CDATA sections), that is a violation is detected while
+ * the stanza is received and not after it is buffered and parsed. The stream header counts as a stanza.
+ * <br>On a violation, the bytes of the stanza aren't passed to the decoder and a {@link LimitExceededException} is
+ * raised (the IO handler answers with a <code>policy-violation</code> stream error). All data received afterwards is dropped.
+ * <br>The filter must be placed before the codec (and after TLS or compression).
+ *
+ * @author notalexa
+ *
+ */
+public class StanzaLimitFilter extends IoFilterAdapter {
+	public static final int DEFAULT_MAX_STANZA_SIZE=1024*1024;
+	public static final int DEFAULT_MAX_DEPTH=64;
+	public static final int DEFAULT_MAX_ATTRIBUTES=128;
+
+	private static final AttributeKey SCANNER=new AttributeKey(StanzaLimitFilter.class,"scanner");
+
+	private final int maxStanzaSize;
+	private final int maxDepth;
+	private final int maxAttributes;
+
+	public StanzaLimitFilter() {
+		this(DEFAULT_MAX_STANZA_SIZE,DEFAULT_MAX_DEPTH,DEFAULT_MAX_ATTRIBUTES);
+	}
+
+	/**
+	 *
+	 * @param maxStanzaSize the maximum number of bytes of a stanza (or <code>0</code> if unlimited)
+	 * @param maxDepth the maximum depth of elements inside a stanza, the stanza itself has depth 1 (or <code>0</code> if unlimited)
+	 * @param maxAttributes the maximum number of attributes (including namespace declarations) of an element (or <code>0</code> if unlimited)
+	 */
+	public StanzaLimitFilter(int maxStanzaSize,int maxDepth,int maxAttributes) {
+		this.maxStanzaSize=maxStanzaSize>0?maxStanzaSize:Integer.MAX_VALUE;
+		this.maxDepth=maxDepth>0?maxDepth:Integer.MAX_VALUE;
+		this.maxAttributes=maxAttributes>0?maxAttributes:Integer.MAX_VALUE;
+	}
+
+	@Override
+	public void messageReceived(NextFilter nextFilter, IoSession session, Object message) throws Exception {
+		if(!(message instanceof IoBuffer)) {
+			nextFilter.messageReceived(session, message);
+			return;
+		}
+		Scanner scanner=(Scanner)session.getAttribute(SCANNER);
+		if(scanner==null) {
+			scanner=new Scanner();
+			session.setAttribute(SCANNER,scanner);
+		}
+		if(scanner.violation) {
+			// the stream is terminated
+			return;
+		}
+		IoBuffer buffer=(IoBuffer)message;
+		String violation=scanner.scan(buffer);
+		if(violation==null) {
+			nextFilter.messageReceived(session, buffer);
+		} else {
+			scanner.violation=true;
+			if(scanner.stanzaStart>buffer.position()) {
+				// pass the stanzas completed in this buffer
+				IoBuffer completed=buffer.duplicate();
+				completed.limit(scanner.stanzaStart);
+				nextFilter.messageReceived(session, completed);
+			}
+			throw new LimitExceededException(violation);
+		}
+	}
+
+	@Override
+	public void sessionClosed(NextFilter nextFilter, IoSession session) throws Exception {
+		session.removeAttribute(SCANNER);
+		nextFilter.sessionClosed(session);
+	}
+
+	/**
+	 * Raised if a received stanza exceeds a limit.
+	 */
+	public static class LimitExceededException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public LimitExceededException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Package visible for tests.
+	 */
+	class Scanner {
+		private static final int TEXT=0;
+		private static final int TAG_OPEN=1;
+		private static final int START_TAG_NAME=2;
+		private static final int START_TAG=3;
+		private static final int ATTRIBUTE_VALUE=4;
+		private static final int END_TAG=5;
+		private static final int PROCESSING_INSTRUCTION=6;
+		private static final int DECLARATION=7;
+		private static final int CDATA=8;
+
+		private int state=TEXT;
+		// 0 outside of the stream, 1 inside of the stream, 2 inside of a stanza and so on
+		private int depth;
+		private int stanzaBytes;
+		private int attributes;
+		private byte quote;
+		private boolean emptyTag;
+		private byte previous;
+		private byte beforePrevious;
+		// the local name of the current start tag is stream
+		private int nameLength;
+		private int localNameStart;
+		private boolean streamName;
+		// the position of the start of the current stanza in the scanned buffer
+		int stanzaStart;
+		boolean violation;
+
+		/**
+		 * Scan the remaining bytes of the buffer (without changing the position of the buffer).
+		 *
+		 * @return the violation or <code>null</code>
+		 */
+		String scan(IoBuffer buffer) {
+			stanzaStart=-1;
+			for(int i=buffer.position();i<buffer.limit();i++) {
+				byte b=buffer.get(i);
+				if(++stanzaBytes>maxStanzaSize) {
+					return "stanza exceeds "+maxStanzaSize+" bytes";
+				}
+				String violation=null;
+				switch(state) {
+				case TEXT:
+					if(b=='<') {
+						if(depth<=1) {
+							stanzaStart=i;
+						}
+						state=TAG_OPEN;
+					}
+					break;
+				case TAG_OPEN:
+					if(b=='/') {
+						state=END_TAG;
+					} else if(b=='?') {
+						state=PROCESSING_INSTRUCTION;
+					} else if(b=='!') {
+						state=DECLARATION;
+					} else {
+						state=START_TAG_NAME;
+						attributes=0;
+						emptyTag=false;
+						nameLength=0;
+						localNameStart=0;
+						streamName=true;
+						name(b);
+					}
+					break;
+				case START_TAG_NAME:
+					if(b=='>') {
+						violation=startTag(false);
+					} else if(b=='/') {
+						emptyTag=true;
+						state=START_TAG;
+					} else if(isWhitespace(b)) {
+						state=START_TAG;
+					} else {
+						name(b);
+					}
+					break;
+				case START_TAG:
+					if(b=='"'||b=='\'') {
+						quote=b;
+						state=ATTRIBUTE_VALUE;
+						emptyTag=false;
+					} else if(b=='=') {
+						if(++attributes>maxAttributes) {
+							violation="element exceeds "+maxAttributes+" attributes";
+						}
+						emptyTag=false;
+					} else if(b=='/') {
+						emptyTag=true;
+					} else if(b=='>') {
+						violation=startTag(emptyTag);
+					} else if(!isWhitespace(b)) {
+						emptyTag=false;
+					}
+					break;
+				case ATTRIBUTE_VALUE:
+					if(b==quote) {
+						state=START_TAG;
+					}
+					break;
+				case END_TAG:
+					if(b=='>') {
+						state=TEXT;
+						if(--depth<=1) {
+							// end of a stanza or of the stream
+							depth=Math.max(depth,0);
+							stanzaBytes=0;
+						}
+					}
+					break;
+				case PROCESSING_INSTRUCTION:
+					if(b=='>'&&previous=='?') {
+						state=TEXT;
+					}
+					break;
+				case DECLARATION:
+					if(b=='['&&previous=='!') {
+						state=CDATA;
+					} else if(b=='>') {
+						state=TEXT;
+					}
+					break;
+				case CDATA:
+					if(b=='>'&&previous==']'&&beforePrevious==']') {
+						state=TEXT;
+					}
+					break;
+				}
+				if(violation!=null) {
+					return violation;
+				}
+				beforePrevious=previous;
+				previous=b;
+			}
+			return null;
+		}
+
+		private void name(byte b) {
+			if(b==':') {
+				localNameStart=nameLength+1;
+				streamName=true;
+			} else {
+				int index=nameLength-localNameStart;
+				streamName&=index<6&&"stream".charAt(index)==b;
+			}
+			nameLength++;
+		}
+
+		private String startTag(boolean empty) {
+			state=TEXT;
+			boolean stream=streamName&&nameLength-localNameStart==6;
+			if(depth==0||(depth==1&&stream)) {
+				// opening (or restart) of the stream
+				if(!empty) {
+					depth=1;
+				}
+				stanzaBytes=0;
+			} else if(empty) {
+				if(depth==1) {
+					stanzaBytes=0;
+				} else if(depth>maxDepth) {
+					// the depth of an empty element is the depth of its parent plus one
+					return "stanza exceeds a depth of "+maxDepth;
+				}
+			} else if(++depth-1>maxDepth) {
+				return "stanza exceeds a depth of "+maxDepth;
+			}
+			return null;
+		}
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b==' '||b=='\t'||b=='\r'||b=='\n';
+	}
+}
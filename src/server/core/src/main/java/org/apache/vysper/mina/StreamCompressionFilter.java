@@ -0,0 +1,243 @@
+package org.apache.vysper.mina;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.core.write.WriteRequestWrapper;
+import org.apache.vysper.xmpp.modules.core.compression.StreamCompression;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaRenderCache;
+
+/**
+ * zlib stream compression (XEP-0138). The filter is inactive until compression is negotiated for a session (see
+ * {@link #getCompression(IoSession)}). From then on, received buffers are inflated and written buffers are deflated
+ * with one {@link Inflater} and one {@link Deflater} per session. Every written buffer is flushed (with the configured
+ * flush mode), the dictionary is kept for the lifetime of the session.
+ * <br>The filter must be placed behind TLS and in front of the write coalescing filter and the codec (that is, the
+ * coalesced writes are compressed stanza by stanza). Inflated data is passed on in chunks, so a stanza limit filter
+ * behind this filter bounds the memory of decompressed data.
+ *
+ * @author notalexa
+ *
+ */
+public class StreamCompressionFilter extends IoFilterAdapter {
+	private static final AttributeKey COMPRESSION=new AttributeKey(StreamCompressionFilter.class,"compression");
+	private static final List<String> METHODS=Collections.singletonList(StreamCompression.METHOD_ZLIB);
+	private static final int CHUNK_SIZE=8*1024;
+	private static final int MAX_INFLATED_CHUNK=64*1024;
+
+	private final int level;
+	private final int flushMode;
+
+	public StreamCompressionFilter() {
+		this(Deflater.DEFAULT_COMPRESSION,Deflater.SYNC_FLUSH);
+	}
+
+	/**
+	 *
+	 * @param level the compression level (0-9 or {@link Deflater#DEFAULT_COMPRESSION})
+	 * @param flushMode the flush mode, {@link Deflater#SYNC_FLUSH} or {@link Deflater#FULL_FLUSH} (which resets the
+	 * dictionary with every flush)
+	 */
+	public StreamCompressionFilter(int level,int flushMode) {
+		if((level<0||level>9)&&level!=Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("illegal compression level: "+level);
+		}
+		if(flushMode!=Deflater.SYNC_FLUSH&&flushMode!=Deflater.FULL_FLUSH) {
+			throw new IllegalArgumentException("illegal flush mode: "+flushMode);
+		}
+		this.level=level;
+		this.flushMode=flushMode;
+	}
+
+	/**
+	 *
+	 * @param session the session
+	 * @return the compression of the session
+	 */
+	public StreamCompression getCompression(IoSession session) {
+		Compression compression=(Compression)session.getAttribute(COMPRESSION);
+		if(compression==null) {
+			compression=new Compression(session);
+			Compression previous=(Compression)session.setAttributeIfAbsent(COMPRESSION,compression);
+			if(previous!=null) {
+				compression=previous;
+			}
+		}
+		return compression;
+	}
+
+	@Override
+	public void messageReceived(NextFilter nextFilter, IoSession session, Object message) throws Exception {
+		Compression compression=(Compression)session.getAttribute(COMPRESSION);
+		if(compression==null||compression.inflater==null||!(message instanceof IoBuffer)) {
+			nextFilter.messageReceived(session, message);
+		} else {
+			compression.inflate(nextFilter,(IoBuffer)message);
+		}
+	}
+
+	@Override
+	public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+		Compression compression=(Compression)session.getAttribute(COMPRESSION);
+		if(compression==null) {
+			nextFilter.filterWrite(session, writeRequest);
+		} else {
+			compression.write(nextFilter,writeRequest);
+		}
+	}
+
+	@Override
+	public void messageSent(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+		if(writeRequest instanceof CompressedWriteRequest) {
+			nextFilter.messageSent(session, ((CompressedWriteRequest)writeRequest).getParentRequest());
+		} else if(!(writeRequest instanceof ControlWriteRequest)) {
+			nextFilter.messageSent(session, writeRequest);
+		}
+	}
+
+	@Override
+	public void sessionClosed(NextFilter nextFilter, IoSession session) throws Exception {
+		Compression compression=(Compression)session.removeAttribute(COMPRESSION);
+		if(compression!=null) {
+			compression.end();
+		}
+		nextFilter.sessionClosed(session);
+	}
+
+	private class Compression implements StreamCompression {
+		private final IoSession session;
+		// set once compression is started, used by the I/O processor only
+		private volatile Inflater inflater;
+		// guarded by this
+		private Deflater deflater;
+		private final byte[] inflateChunk=new byte[CHUNK_SIZE];
+		private final byte[] deflateChunk=new byte[CHUNK_SIZE];
+
+		private Compression(IoSession session) {
+			this.session=session;
+		}
+
+		@Override
+		public List<String> getMethods() {
+			return METHODS;
+		}
+
+		@Override
+		public boolean isActive() {
+			return inflater!=null;
+		}
+
+		@Override
+		public void start(String method,Stanza response) {
+			if(!METHODS.contains(method)) {
+				throw new IllegalArgumentException("unsupported compression method: "+method);
+			}
+			IoBuffer buffer=IoBuffer.wrap(StanzaRenderCache.render(response));
+			synchronized(this) {
+				if(inflater!=null) {
+					throw new IllegalStateException("stream already compressed");
+				}
+				// the client starts compressing when it receives the response
+				inflater=new Inflater();
+				// the response is the last uncompressed write. it's written from here to keep it in order with
+				// the writes of other threads.
+				session.getFilterChain().getNextFilter(StreamCompressionFilter.this).filterWrite(session, new ControlWriteRequest(buffer));
+				deflater=new Deflater(level);
+			}
+		}
+
+		private synchronized void write(NextFilter nextFilter,WriteRequest writeRequest) {
+			Object message=writeRequest.getMessage();
+			if(deflater==null||!(message instanceof IoBuffer)) {
+				nextFilter.filterWrite(session, writeRequest);
+				return;
+			}
+			IoBuffer in=(IoBuffer)message;
+			if(in.hasArray()) {
+				deflater.setInput(in.array(),in.arrayOffset()+in.position(),in.remaining());
+			} else {
+				byte[] bytes=new byte[in.remaining()];
+				in.duplicate().get(bytes);
+				deflater.setInput(bytes);
+			}
+			IoBuffer out=IoBuffer.allocate(Math.max(64,in.remaining()/2)).setAutoExpand(true);
+			int length;
+			do {
+				length=deflater.deflate(deflateChunk,0,deflateChunk.length,flushMode);
+				out.put(deflateChunk,0,length);
+			} while(length==deflateChunk.length);
+			out.flip();
+			nextFilter.filterWrite(session, new CompressedWriteRequest(writeRequest,out));
+		}
+
+		private void inflate(NextFilter nextFilter,IoBuffer in) throws DataFormatException {
+			Inflater inflater=this.inflater;
+			if(in.hasArray()) {
+				inflater.setInput(in.array(),in.arrayOffset()+in.position(),in.remaining());
+			} else {
+				byte[] bytes=new byte[in.remaining()];
+				in.duplicate().get(bytes);
+				inflater.setInput(bytes);
+			}
+			in.position(in.limit());
+			IoBuffer out=IoBuffer.allocate(CHUNK_SIZE).setAutoExpand(true);
+			int length;
+			while((length=inflater.inflate(inflateChunk))>0) {
+				out.put(inflateChunk,0,length);
+				if(out.position()>=MAX_INFLATED_CHUNK) {
+					nextFilter.messageReceived(session, out.flip());
+					out=IoBuffer.allocate(CHUNK_SIZE).setAutoExpand(true);
+				}
+			}
+			if(inflater.finished()) {
+				throw new DataFormatException("compressed stream terminated");
+			}
+			if(out.position()>0) {
+				nextFilter.messageReceived(session, out.flip());
+			}
+		}
+
+		private synchronized void end() {
+			if(inflater!=null) {
+				inflater.end();
+			}
+			if(deflater!=null) {
+				deflater.end();
+				deflater=null;
+			}
+		}
+	}
+
+	private static class CompressedWriteRequest extends WriteRequestWrapper {
+		private final IoBuffer compressed;
+
+		private CompressedWriteRequest(WriteRequest parentRequest,IoBuffer compressed) {
+			super(parentRequest);
+			this.compressed=compressed;
+		}
+
+		@Override
+		public Object getMessage() {
+			return compressed;
+		}
+	}
+
+	/**
+	 * Written by the filter itself, not reported to the filters in front.
+	 */
+	private static class ControlWriteRequest extends DefaultWriteRequest {
+		private ControlWriteRequest(IoBuffer buffer) {
+			super(buffer);
+		}
+	}
+}
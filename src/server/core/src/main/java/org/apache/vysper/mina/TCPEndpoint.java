@@ -2,27 +2,81 @@ package org.apache.vysper.mina;
 
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
 import org.apache.mina.core.service.IoHandler;
+import org.apache.mina.core.session.IdleStatus;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
 import org.apache.mina.transport.socket.SocketAcceptor;
+import org.apache.mina.transport.socket.SocketSessionConfig;
 import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
 import org.apache.vysper.mina.StanzaLoggingFilter;
-import org.apache.vysper.mina.codec.XMPPProtocolCodecFactory;
+import org.apache.vysper.xmpp.protocol.ProtocolWorker;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.ServerRuntimeContextProvider;
+import org.slf4j.LoggerFactory;
 
 /**
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
 public class TCPEndpoint implements MultiHostEndpoint {
+    /**
+     * How received stanzas of the sessions of an endpoint are executed. The ordered models process the stanzas
+     * of a session in the order they were received.
+     */
+    public enum ExecutionModel {
+        /**
+         * the MINA I/O processor thread which decoded the stanza hands it to the (queued) stanza processor of the
+         * domain. the processor runs the stanzas on a shared pool, the order of the stanzas of a session is not
+         * preserved.
+         */
+        INLINE,
+        /**
+         * processed by a ProtocolWorker on an ordered thread pool. a session occupies at most one thread at a time.
+         */
+        ORDERED_POOL,
+        /**
+         * processed by a ProtocolWorker on virtual threads, a session occupies at most one virtual thread at a time.
+         * falls back to {@link #ORDERED_POOL} if virtual threads are not supported by the runtime.
+         */
+        VIRTUAL_THREADS
+    }
+
     private int port = 5222;
+    private ExecutionModel executionModel = ExecutionModel.INLINE;
+    private int corePoolSize = Runtime.getRuntime().availableProcessors();
+    private int maxPoolSize = 4 * Runtime.getRuntime().availableProcessors();
+    private OrderedThreadPoolExecutor executor;
+    private int processorCount = 0;
+    private int backlog = 0;
+    private boolean tcpNoDelay = true;
+    private int receiveBufferSize = -1;
+    private int sendBufferSize = -1;
+    private int writeTimeout = -1;
+    private int idleTime = 0;
+    private long coalescingLatency = -1;
+    private int coalescingBytes = WriteCoalescingFilter.DEFAULT_MAX_BYTES;
+    private WriteCoalescingFilter writeCoalescingFilter;
+    private int maxStanzaSize = StanzaLimitFilter.DEFAULT_MAX_STANZA_SIZE;
+    private int maxStanzaDepth = StanzaLimitFilter.DEFAULT_MAX_DEPTH;
+    private int maxAttributes = StanzaLimitFilter.DEFAULT_MAX_ATTRIBUTES;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionFlushMode = -1;
     private SocketAcceptor acceptor;
     private ServerRuntimeContext serverRuntimeContext;
     private DefaultIoFilterChainBuilder filterChainBuilder;
+    private List<SessionThrottleListener> throttleListeners=new CopyOnWriteArrayList<SessionThrottleListener>();
     
     public TCPEndpoint() {
     }
@@ -42,18 +96,167 @@ public class TCPEndpoint implements MultiHostEndpoint {
     public void setPort(int port) {
         this.port = port;
     }
+
+    /**
+     * Must be called before the endpoint is started.
+     * 
+     * @param executionModel the execution model of the sessions of this endpoint
+     */
+    public void setExecutionModel(ExecutionModel executionModel) {
+        this.executionModel = executionModel == null ? ExecutionModel.INLINE : executionModel;
+    }
+
+    public ExecutionModel getExecutionModel() {
+        return executionModel;
+    }
+
+    /**
+     * Size the pool of the {@link ExecutionModel#ORDERED_POOL} model. Must be called before the endpoint is started.
+     * 
+     * @param corePoolSize the number of threads kept in the pool
+     * @param maxPoolSize the maximum number of threads (and therefore of concurrently executing sessions)
+     */
+    public void setPoolSize(int corePoolSize, int maxPoolSize) {
+        if (corePoolSize < 0 || maxPoolSize < 1 || maxPoolSize < corePoolSize) {
+            throw new IllegalArgumentException("illegal pool size: " + corePoolSize + "/" + maxPoolSize);
+        }
+        this.corePoolSize = corePoolSize;
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * The socket options below must be set before the endpoint is started.
+     * 
+     * @param processorCount the number of NIO processor threads, 0 for the MINA default (one more than the
+     * number of cores)
+     */
+    public void setProcessorCount(int processorCount) {
+        if (processorCount < 0) {
+            throw new IllegalArgumentException("processor count must not be negative: " + processorCount);
+        }
+        this.processorCount = processorCount;
+    }
+
+    /**
+     * @param backlog the length of the accept queue, 0 for the system default
+     */
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * @param tcpNoDelay true (the default) to disable Nagle's algorithm. stanzas are small and latency matters.
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * @param receiveBufferSize the socket receive buffer size in bytes, -1 for the system default
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * @param sendBufferSize the socket send buffer size in bytes, -1 for the system default
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * @param writeTimeout the time (in seconds) a write may take before the session is closed, -1 for the MINA default
+     */
+    public void setWriteTimeout(int writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    /**
+     * @param idleTime the time (in seconds) without reads and writes until a session is reported idle, 0 to switch off
+     */
+    public void setIdleTime(int idleTime) {
+        this.idleTime = idleTime;
+    }
+
+    /**
+     * Coalesce the stanzas written to a session into fewer network writes (see {@link WriteCoalescingFilter}). Must
+     * be called before the endpoint is started.
+     * 
+     * @param maxLatency the maximum time (in milliseconds) a stanza is held back, -1 to switch coalescing off (the default)
+     * @param maxBytes the number of pending bytes which triggers a flush
+     */
+    public void setWriteCoalescing(long maxLatency, int maxBytes) {
+        this.coalescingLatency = maxLatency;
+        this.coalescingBytes = maxBytes;
+    }
+
+    /**
+     * Offer stream compression (XEP-0138) to the sessions of this endpoint (see {@link StreamCompressionFilter}).
+     * Must be called before the endpoint is started.
+     * 
+     * @param level the compression level (0-9 or {@link Deflater#DEFAULT_COMPRESSION})
+     * @param flushMode {@link Deflater#SYNC_FLUSH} or {@link Deflater#FULL_FLUSH}, -1 to switch compression off (the default)
+     */
+    public void setCompression(int level, int flushMode) {
+        this.compressionLevel = level;
+        this.compressionFlushMode = flushMode;
+    }
+
+    /**
+     * Limit the stanzas received by the sessions of this endpoint (see {@link StanzaLimitFilter}). A stanza exceeding
+     * a limit terminates the stream with a policy-violation error. Must be called before the endpoint is started.
+     * 
+     * @param maxStanzaSize the maximum number of bytes of a stanza, 0 for unlimited
+     * @param maxStanzaDepth the maximum depth of elements inside a stanza, 0 for unlimited
+     * @param maxAttributes the maximum number of attributes of an element, 0 for unlimited
+     */
+    public void setStanzaLimits(int maxStanzaSize, int maxStanzaDepth, int maxAttributes) {
+        this.maxStanzaSize = maxStanzaSize;
+        this.maxStanzaDepth = maxStanzaDepth;
+        this.maxAttributes = maxAttributes;
+    }
+    
+    /**
+     * Add a listener notified whenever reading from a session of this endpoint is suspended because the
+     * stanza relay is saturated. Must be called before the endpoint is started.
+     * 
+     * @param listener the listener
+     */
+    public void addThrottleListener(SessionThrottleListener listener) {
+    	throttleListeners.add(listener);
+    }
     
     public void start() throws IOException {
     	start(new ServerRuntimeContextProvider(serverRuntimeContext));
     }
     
     public void start(IoHandler adapter) throws IOException {
-        NioSocketAcceptor acceptor = new NioSocketAcceptor();
+        NioSocketAcceptor acceptor = processorCount > 0 ? new NioSocketAcceptor(processorCount) : new NioSocketAcceptor();
+        configure(acceptor);
 
         DefaultIoFilterChainBuilder filterChainBuilder = new DefaultIoFilterChainBuilder();
         //filterChainBuilder.addLast("executorFilter", new OrderedThreadPoolExecutor());
-        filterChainBuilder.addLast("xmppCodec", new ProtocolCodecFilter(new XMPPProtocolCodecFactory()));
+        addTransportFilters(filterChainBuilder);
+        filterChainBuilder.addLast("stageTiming", new StageTimingFilter());
+        if (compressionFlushMode >= 0) {
+            // behind TLS (the ssl filter is added first on STARTTLS)
+            filterChainBuilder.addLast("compression", new StreamCompressionFilter(compressionLevel, compressionFlushMode));
+        }
+        if (coalescingLatency >= 0) {
+            writeCoalescingFilter = new WriteCoalescingFilter(coalescingLatency, coalescingBytes);
+            filterChainBuilder.addLast("writeCoalescing", writeCoalescingFilter);
+        }
+        if (maxStanzaSize > 0 || maxStanzaDepth > 0 || maxAttributes > 0) {
+            filterChainBuilder.addLast("stanzaLimits", new StanzaLimitFilter(maxStanzaSize, maxStanzaDepth, maxAttributes));
+        }
+        filterChainBuilder.addLast("xmppCodec", new ProtocolCodecFilter(new XmppCodecFactory()));
         filterChainBuilder.addLast("loggingFilter", new StanzaLoggingFilter());
+        // stanzas are decoded on the I/O processor and handed over (in order) to the executor
+        executor = createExecutor();
+        if (executor != null) {
+            filterChainBuilder.addLast("executorFilter", new ExecutorFilter(executor));
+        }
         acceptor.setFilterChainBuilder(filterChainBuilder);
         acceptor.setHandler(adapter);
 
@@ -63,13 +266,90 @@ public class TCPEndpoint implements MultiHostEndpoint {
         this.acceptor = acceptor;
     }
 
+    /**
+     * Add the filters in front of the chain, that is filters operating on the raw bytes of the connection. None by
+     * default (TLS is added on STARTTLS).
+     * 
+     * @param filterChainBuilder the builder of the chain
+     */
+    protected void addTransportFilters(DefaultIoFilterChainBuilder filterChainBuilder) {
+    }
+
+    private void configure(NioSocketAcceptor acceptor) {
+        if (backlog > 0) {
+            acceptor.setBacklog(backlog);
+        }
+        SocketSessionConfig config = acceptor.getSessionConfig();
+        config.setTcpNoDelay(tcpNoDelay);
+        if (receiveBufferSize > 0) {
+            config.setReceiveBufferSize(receiveBufferSize);
+        }
+        if (sendBufferSize > 0) {
+            config.setSendBufferSize(sendBufferSize);
+        }
+        if (writeTimeout >= 0) {
+            config.setWriteTimeout(writeTimeout);
+        }
+        if (idleTime > 0) {
+            config.setIdleTime(IdleStatus.BOTH_IDLE, idleTime);
+        }
+    }
+
+    private OrderedThreadPoolExecutor createExecutor() {
+        switch (executionModel) {
+        case VIRTUAL_THREADS:
+            ThreadFactory virtualThreads = virtualThreadFactory();
+            if (virtualThreads != null) {
+                // virtual threads are cheap, every active session may have its own
+                return new OrderedThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, virtualThreads);
+            }
+            LoggerFactory.getLogger(TCPEndpoint.class).warn(
+                    "virtual threads are not supported by this runtime, using an ordered thread pool");
+            // fall through
+        case ORDERED_POOL:
+            return new OrderedThreadPoolExecutor(corePoolSize, maxPoolSize, 30, TimeUnit.SECONDS,
+                    Executors.defaultThreadFactory());
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Virtual threads are resolved reflectively since they are not available on all supported runtimes.
+     * 
+     * @return a factory of virtual threads or <code>null</code> if not supported
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
     public void stop() {
         acceptor.unbind();
         acceptor.dispose();
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (writeCoalescingFilter != null) {
+            writeCoalescingFilter.dispose();
+        }
     }
 
 	@Override
 	public void start(ServerRuntimeContextProvider contextProvider) throws IOException {
-		start(new XmppIoHandlerAdapter(this,contextProvider));
+		XmppIoHandlerAdapter adapter=new XmppIoHandlerAdapter(this,contextProvider);
+		for(SessionThrottleListener listener:throttleListeners) {
+			adapter.addThrottleListener(listener);
+		}
+		if(executionModel!=ExecutionModel.INLINE) {
+			// process on the executor thread, the queued processor of the domain doesn't preserve the order
+			adapter.setStanzaProcessor(new ProtocolWorker());
+		}
+		start(adapter);
 	}
 }
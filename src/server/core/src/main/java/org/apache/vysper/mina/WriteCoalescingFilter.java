@@ -0,0 +1,205 @@
+package org.apache.vysper.mina;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteRequest;
+
+/**
+ * Coalesces the encoded stanzas written to a session into one network write. Pending stanzas are flushed
+ * <ul>
+ * <li>at the end of the processing turn of a received stanza (if the stanza is processed on the I/O thread),</li>
+ * <li>if the pending bytes exceed the maximum size or</li>
+ * <li>after the maximum latency.</li>
+ * </ul>
+ * A MUC join delivering presences, history and subject back to back results in one write (and, with TLS, in one
+ * record) instead of one per stanza. The futures of the written stanzas complete (and their <code>messageSent</code>
+ * events are fired) when the coalesced write completes.
+ * <br>The filter must be placed before the codec (that is, it receives encoded buffers on write).
+ *
+ * @author notalexa
+ *
+ */
+public class WriteCoalescingFilter extends IoFilterAdapter {
+	public static final int DEFAULT_MAX_BYTES=16*1024;
+	public static final long DEFAULT_MAX_LATENCY=1;
+
+	private static final AttributeKey PENDING=new AttributeKey(WriteCoalescingFilter.class,"pending");
+
+	private final long maxLatencyMicros;
+	private final int maxBytes;
+	private final ScheduledExecutorService timer;
+
+	public WriteCoalescingFilter() {
+		this(DEFAULT_MAX_LATENCY,DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 *
+	 * @param maxLatency the maximum time (in milliseconds) a stanza is held back
+	 * @param maxBytes the number of pending bytes which triggers a flush
+	 */
+	public WriteCoalescingFilter(long maxLatency,int maxBytes) {
+		if(maxLatency<0||maxBytes<1) {
+			throw new IllegalArgumentException("illegal coalescing parameters: "+maxLatency+"ms/"+maxBytes+" bytes");
+		}
+		this.maxLatencyMicros=TimeUnit.MILLISECONDS.toMicros(maxLatency);
+		this.maxBytes=maxBytes;
+		timer=Executors.newSingleThreadScheduledExecutor(r->{
+			Thread thread=new Thread(r,"vysper-write-coalescing");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void messageReceived(NextFilter nextFilter, IoSession session, Object message) throws Exception {
+		try {
+			nextFilter.messageReceived(session, message);
+		} finally {
+			// end of the processing turn
+			flush(nextFilter,session);
+		}
+	}
+
+	@Override
+	public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+		Object message=writeRequest.getMessage();
+		Pending pending=getPending(session);
+		synchronized(pending) {
+			if(!(message instanceof IoBuffer)||session.isClosing()) {
+				// keep the order
+				flush(nextFilter,session,pending);
+				nextFilter.filterWrite(session, writeRequest);
+				return;
+			}
+			pending.requests.add(writeRequest);
+			pending.bytes+=((IoBuffer)message).remaining();
+			if(pending.bytes>=maxBytes||maxLatencyMicros==0) {
+				flush(nextFilter,session,pending);
+			} else if(!pending.scheduled) {
+				pending.scheduled=true;
+				timer.schedule(()->flush(nextFilter,session),maxLatencyMicros,TimeUnit.MICROSECONDS);
+			}
+		}
+	}
+
+	@Override
+	public void messageSent(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+		if(writeRequest instanceof CoalescedWriteRequest) {
+			for(WriteRequest request:((CoalescedWriteRequest)writeRequest).requests) {
+				nextFilter.messageSent(session, request);
+			}
+		} else {
+			nextFilter.messageSent(session, writeRequest);
+		}
+	}
+
+	@Override
+	public void filterClose(NextFilter nextFilter, IoSession session) throws Exception {
+		flush(nextFilter,session);
+		nextFilter.filterClose(session);
+	}
+
+	@Override
+	public void sessionClosed(NextFilter nextFilter, IoSession session) throws Exception {
+		Pending pending=(Pending)session.removeAttribute(PENDING);
+		if(pending!=null) {
+			synchronized(pending) {
+				for(WriteRequest request:pending.requests) {
+					request.getFuture().setException(new IllegalStateException("session closed"));
+				}
+				pending.requests.clear();
+			}
+		}
+		nextFilter.sessionClosed(session);
+	}
+
+	/**
+	 * Stop the timer. Called when the endpoint is stopped.
+	 */
+	public void dispose() {
+		timer.shutdown();
+	}
+
+	private Pending getPending(IoSession session) {
+		Pending pending=(Pending)session.getAttribute(PENDING);
+		if(pending==null) {
+			pending=new Pending();
+			Pending previous=(Pending)session.setAttributeIfAbsent(PENDING,pending);
+			if(previous!=null) {
+				pending=previous;
+			}
+		}
+		return pending;
+	}
+
+	private void flush(NextFilter nextFilter,IoSession session) {
+		Pending pending=(Pending)session.getAttribute(PENDING);
+		if(pending!=null) {
+			synchronized(pending) {
+				flush(nextFilter,session,pending);
+			}
+		}
+	}
+
+	/**
+	 * Called with the lock of the pending writes held.
+	 */
+	private void flush(NextFilter nextFilter,IoSession session,Pending pending) {
+		pending.scheduled=false;
+		int count=pending.requests.size();
+		if(count==0) {
+			return;
+		}
+		if(count==1) {
+			nextFilter.filterWrite(session, pending.requests.get(0));
+		} else {
+			IoBuffer buffer=IoBuffer.allocate(pending.bytes);
+			for(WriteRequest request:pending.requests) {
+				buffer.put(((IoBuffer)request.getMessage()).duplicate());
+			}
+			buffer.flip();
+			List<WriteRequest> requests=new ArrayList<WriteRequest>(pending.requests);
+			WriteFuture future=new DefaultWriteFuture(session);
+			future.addListener((IoFutureListener<WriteFuture>)f->{
+				for(WriteRequest request:requests) {
+					if(f.isWritten()) {
+						request.getFuture().setWritten();
+					} else {
+						request.getFuture().setException(f.getException());
+					}
+				}
+			});
+			nextFilter.filterWrite(session, new CoalescedWriteRequest(buffer,future,requests));
+		}
+		pending.requests.clear();
+		pending.bytes=0;
+	}
+
+	private static class Pending {
+		private final List<WriteRequest> requests=new ArrayList<WriteRequest>();
+		private int bytes;
+		private boolean scheduled;
+	}
+
+	private static class CoalescedWriteRequest extends DefaultWriteRequest {
+		private final List<WriteRequest> requests;
+
+		private CoalescedWriteRequest(IoBuffer buffer,WriteFuture future,List<WriteRequest> requests) {
+			super(buffer,future,requests.get(0).getDestination());
+			this.requests=requests;
+		}
+	}
+}
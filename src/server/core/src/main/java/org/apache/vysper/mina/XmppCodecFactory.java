@@ -0,0 +1,72 @@
+package org.apache.vysper.mina;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderAdapter;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+import org.apache.vysper.mina.codec.StanzaWriteInfo;
+import org.apache.vysper.mina.codec.XMPPProtocolCodecFactory;
+import org.apache.vysper.xmpp.stanza.StanzaRenderCache;
+
+/**
+ * The XMPP codec of the TCP endpoint. Decoding is done by the {@link XMPPProtocolCodecFactory}. Complete stanzas are
+ * encoded through the {@link StanzaRenderCache}, that is the stanzas of a fan-out are rendered once and all other stanzas
+ * are encoded by the {@link org.apache.vysper.xmpp.stanza.StanzaEncoder} directly into the buffer handed to MINA.
+ * Everything else (in particular the opening and closing of the stream) is encoded by the encoder of the
+ * {@link XMPPProtocolCodecFactory}.
+ * <br>The buffers are allocated by the allocator configured for MINA (see {@link IoBuffer#setAllocator(org.apache.mina.core.buffer.IoBufferAllocator)}
+ * and {@link IoBuffer#setUseDirectBuffer(boolean)}), sized by the stanzas previously encoded for the session.
+ *
+ * @author notalexa
+ *
+ */
+public class XmppCodecFactory implements ProtocolCodecFactory {
+	private final XMPPProtocolCodecFactory delegate=new XMPPProtocolCodecFactory();
+
+	@Override
+	public ProtocolEncoder getEncoder(IoSession session) throws Exception {
+		return new Encoder(delegate.getEncoder(session));
+	}
+
+	@Override
+	public ProtocolDecoder getDecoder(IoSession session) throws Exception {
+		return delegate.getDecoder(session);
+	}
+
+	private static class Encoder extends ProtocolEncoderAdapter {
+		private static final int MIN_SIZE=256;
+		private static final int MAX_SIZE=16*1024;
+
+		private final ProtocolEncoder delegate;
+		// the size of the last encoded stanza
+		private volatile int sizeHint=MIN_SIZE;
+
+		private Encoder(ProtocolEncoder delegate) {
+			this.delegate=delegate;
+		}
+
+		@Override
+		public void encode(IoSession session, Object message, ProtocolEncoderOutput out) throws Exception {
+			if(message instanceof StanzaWriteInfo) {
+				StanzaWriteInfo writeInfo=(StanzaWriteInfo)message;
+				if(!writeInfo.isWriteProlog()&&writeInfo.isWriteOpeningElement()&&writeInfo.isWriteClosingElement()) {
+					IoBuffer buffer=IoBuffer.allocate(sizeHint);
+					StanzaRenderCache.render(writeInfo.getStanza(),buffer);
+					buffer.flip();
+					sizeHint=Math.max(MIN_SIZE,Math.min(MAX_SIZE,buffer.remaining()));
+					out.write(buffer);
+					return;
+				}
+			}
+			delegate.encode(session, message, out);
+		}
+
+		@Override
+		public void dispose(IoSession session) throws Exception {
+			delegate.dispose(session);
+		}
+	}
+}
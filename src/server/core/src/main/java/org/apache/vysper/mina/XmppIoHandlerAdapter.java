@@ -19,6 +19,9 @@
  */
 package org.apache.vysper.mina;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import org.apache.mina.core.service.IoHandler;
 import org.apache.mina.core.session.IdleStatus;
 import org.apache.mina.core.session.IoSession;
@@ -28,7 +31,15 @@ import org.apache.vysper.mina.codec.StanzaWriteInfo;
 import org.apache.vysper.xml.fragment.XMLText;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.SessionThrottle;
+import org.apache.vysper.xmpp.delivery.inbound.RecipientOrderedExecutor.Saturation;
+import org.apache.vysper.xmpp.metrics.MetricsSink;
+import org.apache.vysper.xmpp.metrics.Stage;
+import org.apache.vysper.xmpp.metrics.StanzaKind;
+import org.apache.vysper.xmpp.metrics.TimestampedSessionStateHolder;
+import org.apache.vysper.xmpp.modules.core.compression.StreamCompression;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.protocol.StanzaProcessor;
 import org.apache.vysper.xmpp.protocol.StreamErrorCondition;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.ServerRuntimeContextProvider;
@@ -50,10 +61,14 @@ public class XmppIoHandlerAdapter implements IoHandler {
 
     public static final String ATTRIBUTE_VYSPER_SESSIONSTATEHOLDER = "vysperSessionStateHolder";
 
+    public static final String ATTRIBUTE_VYSPER_THROTTLED = "vysperThrottled";
+
     final Logger logger = LoggerFactory.getLogger(XmppIoHandlerAdapter.class);
 
     protected ServerRuntimeContextProvider contextProvider;
     protected MultiHostEndpoint endpoint;
+    protected List<SessionThrottleListener> throttleListeners = new CopyOnWriteArrayList<SessionThrottleListener>();
+    protected StanzaProcessor stanzaProcessor;
     
 	public XmppIoHandlerAdapter(MultiHostEndpoint endpoint,ServerRuntimeContextProvider contextProvider) {
 		this.contextProvider=contextProvider;
@@ -71,11 +86,19 @@ public class XmppIoHandlerAdapter implements IoHandler {
             	throw new IllegalStateException("session not properly initialized. close stream");
             }
             SessionContext sessionContext=null;
-            if(message instanceof Stanza) {
+            if(message instanceof Stanza&&isTLSDomain(ioSession, ((Stanza)message).getTo())) {
             	sessionContext=createContext(stateHolder, ioSession, ((Stanza)message).getTo());
             }
             if(sessionContext!=null) {
             	ioSession.setAttribute(ATTRIBUTE_VYSPER_SESSION, sessionContext);
+            	StreamCompressionFilter compressionFilter=(StreamCompressionFilter)ioSession.getFilterChain().get(StreamCompressionFilter.class);
+            	if(compressionFilter!=null) {
+            		sessionContext.putAttribute(StreamCompression.SESSION_ATTRIBUTE, compressionFilter.getCompression(ioSession));
+            	}
+            	if(ioSession.getFilterChain().contains(SslFilter.class)) {
+            		// direct TLS (XEP-0368): the connection is encrypted (for this domain) before the stream is opened
+            		stateHolder.setState(SessionState.ENCRYPTED);
+            	}
             } else {
             	Stanza errorStanza=ServerErrorResponses.getStreamError(StreamErrorCondition.HOST_UNKNOWN, "en", "host not found",null);
                 ioSession.write(new StanzaWriteInfo(errorStanza,true));
@@ -100,7 +123,79 @@ public class XmppIoHandlerAdapter implements IoHandler {
         SessionStateHolder stateHolder = (SessionStateHolder) ioSession
                 .getAttribute(ATTRIBUTE_VYSPER_SESSIONSTATEHOLDER);
 
-        session.getServerRuntimeContext().getStanzaProcessor().processStanza(session.getServerRuntimeContext(), session, stanza, stateHolder);
+        MetricsSink metrics = session.getServerRuntimeContext().getMetricsSink();
+        if (metrics.isEnabled()) {
+            long now = System.nanoTime();
+            Long received = (Long) ioSession.removeAttribute(StageTimingFilter.ATTRIBUTE_VYSPER_RECEIVED);
+            if (received != null) {
+                metrics.record(Stage.DECODE, StanzaKind.of(stanza), session.getServerRuntimeContext()
+                        .getServerEnitity().getDomain(), now - received);
+            }
+            // the protocol worker measures the queue wait
+            stateHolder = new TimestampedSessionStateHolder(stateHolder, now);
+        }
+
+        // the processor throttles the session if its stanzas saturate delivery lanes (see ThrottlingSessionStateHolder)
+        getStanzaProcessor(session).processStanza(session.getServerRuntimeContext(), session, stanza, stateHolder);
+    }
+
+    /**
+     * with direct TLS, the stream must be opened for the domain the TLS context (and therefore the certificate) was
+     * selected for. other domains are unknown to this session.
+     */
+    private boolean isTLSDomain(IoSession ioSession, Entity to) {
+        String tlsDomain = (String) ioSession.getAttribute(DirectTLSFilter.ATTRIBUTE_TLS_DOMAIN);
+        return tlsDomain == null || to != null && tlsDomain.equalsIgnoreCase(to.getDomain());
+    }
+
+    /**
+     * process the stanzas of all sessions with the given processor instead of the (queued) stanza processor of
+     * their domain. a processor executing the stanzas synchronously (like ProtocolWorker) processes them on the thread
+     * calling this handler, that is in order if the handler is called by an ordered executor.
+     * @param stanzaProcessor the processor or null to use the processor of the domain (the default)
+     */
+    public void setStanzaProcessor(StanzaProcessor stanzaProcessor) {
+        this.stanzaProcessor = stanzaProcessor;
+    }
+
+    private StanzaProcessor getStanzaProcessor(SessionContext session) {
+        return stanzaProcessor == null ? session.getServerRuntimeContext().getStanzaProcessor() : stanzaProcessor;
+    }
+
+    public void addThrottleListener(SessionThrottleListener listener) {
+        throttleListeners.add(listener);
+    }
+
+    public void removeThrottleListener(SessionThrottleListener listener) {
+        throttleListeners.remove(listener);
+    }
+
+    /**
+     * the session sends stanzas to saturated delivery lanes. suspend reading until these lanes are relieved, 
+     * so that backpressure reaches the socket. called on the thread which processed the stanza.
+     */
+    protected void throttle(final IoSession ioSession, final SessionContext session, Saturation saturation) {
+        if (ioSession.setAttributeIfAbsent(ATTRIBUTE_VYSPER_THROTTLED, Boolean.TRUE) != null) {
+            // already throttled
+            return;
+        }
+        logger.debug("suspending reads from session {}, relay saturated", session.getSessionId());
+        ioSession.suspendRead();
+        for (SessionThrottleListener listener : throttleListeners) {
+            listener.onSessionThrottled(session);
+        }
+        saturation.whenRelieved(new Runnable() {
+            public void run() {
+                ioSession.removeAttribute(ATTRIBUTE_VYSPER_THROTTLED);
+                if (ioSession.isConnected()) {
+                    logger.debug("resuming reads from session {}", session.getSessionId());
+                    ioSession.resumeRead();
+                }
+                for (SessionThrottleListener listener : throttleListeners) {
+                    listener.onSessionResumed(session);
+                }
+            }
+        });
     }
     
     /**
@@ -124,7 +219,7 @@ public class XmppIoHandlerAdapter implements IoHandler {
             SessionContext session = extractSession(ioSession);
             SessionStateHolder stateHolder = (SessionStateHolder) ioSession
                     .getAttribute(ATTRIBUTE_VYSPER_SESSIONSTATEHOLDER);
-            session.getServerRuntimeContext().getStanzaProcessor().processTLSEstablished(session, stateHolder);
+            getStanzaProcessor(session).processTLSEstablished(session, stateHolder);
             return;
         } else if (message == SslFilter.SESSION_UNSECURED) {
             // TODO
@@ -145,7 +240,7 @@ public class XmppIoHandlerAdapter implements IoHandler {
     }
 
     public void sessionCreated(IoSession ioSession) throws Exception {
-        SessionStateHolder stateHolder = new SessionStateHolder();
+        SessionStateHolder stateHolder = new ThrottlingSessionStateHolder(ioSession);
         ioSession.setAttribute(ATTRIBUTE_VYSPER_SESSIONSTATEHOLDER, stateHolder);
     }
 
@@ -164,15 +259,29 @@ public class XmppIoHandlerAdapter implements IoHandler {
     }
 
     public void sessionIdle(IoSession ioSession, IdleStatus idleStatus) throws Exception {
-        logger.debug("session {} is idle", ((SessionContext) ioSession.getAttribute(ATTRIBUTE_VYSPER_SESSION))
-                .getSessionId());
+        // the idle time is configured on the endpoint
+        SessionContext sessionContext = extractSession(ioSession);
+        logger.debug("session {} is idle ({})", sessionContext == null ? ioSession.getRemoteAddress() : sessionContext
+                .getSessionId(), idleStatus);
     }
 
     public void exceptionCaught(IoSession ioSession, Throwable throwable) throws Exception {
         SessionContext sessionContext = extractSession(ioSession);
 
         Stanza errorStanza;
-        if(throwable.getCause() != null && throwable.getCause() instanceof SAXParseException) {
+        if(throwable instanceof StanzaLimitFilter.LimitExceededException) {
+            logger.info("Client exceeded stanza limits ({}), closing session", throwable.getMessage());
+            if(sessionContext == null) {
+                // the stream isn't open yet
+                errorStanza = ServerErrorResponses.getStreamError(StreamErrorCondition.POLICY_VIOLATION, "en",
+                        throwable.getMessage(), null);
+                ioSession.write(new StanzaWriteInfo(errorStanza, true));
+                ioSession.close(false);
+                return;
+            }
+            errorStanza = ServerErrorResponses.getStreamError(StreamErrorCondition.POLICY_VIOLATION,
+                    sessionContext.getXMLLang(), throwable.getMessage(), null);
+        } else if(throwable.getCause() != null && throwable.getCause() instanceof SAXParseException) {
             logger.info("Client sent not well-formed XML, closing session: {}", throwable);
             errorStanza = ServerErrorResponses.getStreamError(StreamErrorCondition.XML_NOT_WELL_FORMED,
                     sessionContext.getXMLLang(), "Stanza not well-formed", null);
@@ -188,4 +297,20 @@ public class XmppIoHandlerAdapter implements IoHandler {
         sessionContext.getResponseWriter().write(errorStanza);
         sessionContext.endSession(SessionContext.SessionTerminationCause.STREAM_ERROR);
     }
+
+    /**
+     * the state holder travels with every stanza of the session to the stanza processor. this way, the processing
+     * thread (which relays the stanza) is able to suspend reading from the io session.
+     */
+    private class ThrottlingSessionStateHolder extends SessionStateHolder implements SessionThrottle {
+        private final IoSession ioSession;
+
+        ThrottlingSessionStateHolder(IoSession ioSession) {
+            this.ioSession = ioSession;
+        }
+
+        public void throttle(SessionContext sessionContext, Saturation saturation) {
+            XmppIoHandlerAdapter.this.throttle(ioSession, sessionContext, saturation);
+        }
+    }
 }
@@ -0,0 +1,49 @@
+package org.apache.vysper.xmpp.delivery;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.delivery.inbound.RelayResult;
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * A relay which reports the outcome of the delivery. Callers can chain on the returned stage instead of blocking
+ * or providing a failure strategy.
+ *
+ * @author notalexa
+ *
+ */
+public interface AsyncStanzaRelay extends StanzaRelay {
+
+	/**
+	 * Relay the stanza. Other than {@link #relay(Entity, Stanza, DeliveryFailureStrategy)}, this method doesn't throw but reports
+	 * a rejected stanza in the result.
+	 *
+	 * @param receiver the receiver
+	 * @param stanza the stanza to relay
+	 * @param deliveryFailureStrategy the failure strategy (which is run before the stage completes)
+	 * @return a stage completing after the stanza was delivered (or failed to deliver). Failures are reported as processing errors of the result.
+	 */
+	public CompletionStage<RelayResult> relayAsync(Entity receiver,Stanza stanza,DeliveryFailureStrategy deliveryFailureStrategy);
+
+	/**
+	 * Relay the stanza using the given relay. If the relay is not an {@link AsyncStanzaRelay}, the stanza is relayed
+	 * synchronously and the returned stage is already completed. In this case, completion means that the stanza was accepted by the relay.
+	 *
+	 * @see #relayAsync(Entity, Stanza, DeliveryFailureStrategy)
+	 */
+	public static CompletionStage<RelayResult> relayAsync(StanzaRelay relay,Entity receiver,Stanza stanza,DeliveryFailureStrategy deliveryFailureStrategy) {
+		if(relay instanceof AsyncStanzaRelay) {
+			return ((AsyncStanzaRelay)relay).relayAsync(receiver,stanza,deliveryFailureStrategy);
+		}
+		try {
+			relay.relay(receiver,stanza,deliveryFailureStrategy);
+			return CompletableFuture.completedFuture(new RelayResult());
+		} catch(DeliveryException e) {
+			return CompletableFuture.completedFuture(new RelayResult(e));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package org.apache.vysper.xmpp.delivery;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.stanza.StanzaRenderCache;
+
+/**
+ * A relay which is able to deliver one stanza to many receivers. The template is addressed to the receivers
+ * (by replacing the <code>to</code> attribute) inside the relay, as late as possible. The relay is free to
+ * deliver receivers sharing a session or a domain in one batch.
+ *
+ * @author notalexa
+ *
+ */
+public interface MulticastStanzaRelay extends StanzaRelay {
+
+	/**
+	 * Relay the template to all receivers. A failure for one receiver doesn't prevent the delivery to the other receivers.
+	 * The failure strategy is called with the stanza addressed to the failing receiver.
+	 *
+	 * @param receivers the receivers of the stanza
+	 * @param template the stanza to relay. The <code>to</code> attribute is replaced for every receiver.
+	 * @param deliveryFailureStrategy the failure strategy
+	 * @throws DeliveryException if relaying failed for at least one receiver
+	 */
+	public void multicast(Collection<Entity> receivers,Stanza template,DeliveryFailureStrategy deliveryFailureStrategy) throws DeliveryException;
+
+	/**
+	 * Relay the template to the receivers one by one. This is the fallback for relays not supporting multicast.
+	 *
+	 * @see #multicast(Collection, Stanza, DeliveryFailureStrategy)
+	 */
+	public static void relayEach(StanzaRelay relay,Collection<Entity> receivers,Stanza template,DeliveryFailureStrategy deliveryFailureStrategy) throws DeliveryException {
+		StanzaRenderCache.share(template,receivers.size());
+		DeliveryException failure=null;
+		for(Entity receiver:receivers) {
+			try {
+				relay.relay(receiver,addressTo(template,receiver),deliveryFailureStrategy);
+			} catch(DeliveryException e) {
+				if(failure==null) {
+					failure=e;
+				}
+			}
+		}
+		if(failure!=null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 *
+	 * @param template the template
+	 * @param receiver the receiver
+	 * @return the template addressed to the receiver. Inner elements are shared with the template (and so is the rendering,
+	 * if the fan-out is announced by {@link StanzaRenderCache#share(Stanza, int)}).
+	 */
+	public static Stanza addressTo(Stanza template,Entity receiver) {
+		return StanzaBuilder.createClone(template,true,Collections.singletonList(new Attribute("to",receiver.getFullQualifiedName()))).build();
+	}
+}
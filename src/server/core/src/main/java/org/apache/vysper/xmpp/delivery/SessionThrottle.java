@@ -0,0 +1,25 @@
+package org.apache.vysper.xmpp.delivery;
+
+import org.apache.vysper.xmpp.delivery.inbound.RecipientOrderedExecutor.Saturation;
+import org.apache.vysper.xmpp.server.SessionContext;
+
+/**
+ * Implemented by the session state holders of transports which are able to suspend reading from a session. The
+ * stanzas of a session are relayed by the thread processing them (not necessarily the transport thread), therefore
+ * the stanza processor takes the lanes saturated while processing a stanza and hands them to the throttle of the
+ * sending session. The state holder is passed with every stanza, no shared state of the session is involved.
+ * 
+ * @author notalexa
+ *
+ */
+public interface SessionThrottle {
+	
+	/**
+	 * Suspend reading from the session until the saturated lanes are relieved. Called on the thread which processed
+	 * the stanza.
+	 * 
+	 * @param sessionContext the session which sent the stanza
+	 * @param saturation the lanes saturated by relaying the stanza
+	 */
+	public void throttle(SessionContext sessionContext,Saturation saturation);
+}
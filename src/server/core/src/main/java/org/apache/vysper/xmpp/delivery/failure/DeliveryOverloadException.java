@@ -0,0 +1,16 @@
+package org.apache.vysper.xmpp.delivery.failure;
+
+/**
+ * The stanza was not delivered because the delivery queue of the receiver is saturated. The sender
+ * may retry later (the error type is <code>wait</code>).
+ * 
+ * @author notalexa
+ *
+ */
+public class DeliveryOverloadException extends DeliveryException {
+	private static final long serialVersionUID = 1L;
+
+	public DeliveryOverloadException(String message) {
+		super(message);
+	}
+}
@@ -111,6 +111,12 @@ public class ReturnErrorToSenderFailureStrategy implements DeliveryFailureStrate
                         return;
                     }
                 }
+            } else if (deliveryException instanceof DeliveryOverloadException) {
+                // the receiver can't keep up, the sender may retry later
+                XMPPCoreStanza error = XMPPCoreStanza.getWrapper(ServerErrorResponses.getStanzaError(
+                        StanzaErrorCondition.RESOURCE_CONSTRAINT, failedCoreStanza, StanzaErrorType.WAIT,
+                        deliveryException.getMessage(), "en", null));
+                relay.relay(error.getTo(), error, DeliveryFailureStrategy.IGNORE);
             } else if (deliveryException instanceof SmartDeliveryException) {
                 // RFC3921bis#10.4.3: return remote server error to sender
                 SmartDeliveryException smartDeliveryException = (SmartDeliveryException) deliveryException;
@@ -20,17 +20,15 @@
 package org.apache.vysper.xmpp.delivery.inbound;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.vysper.compliance.SpecCompliant;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.AsyncStanzaRelay;
 import org.apache.vysper.xmpp.delivery.OfflineStanzaReceiver;
-import org.apache.vysper.xmpp.delivery.StanzaRelay;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
@@ -43,50 +41,80 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * relays all 'incoming' stanzas to internal sessions, acts as a 'stage' by using a ThreadPoolExecutor
+ * relays all 'incoming' stanzas to internal sessions, acts as a 'stage' by using a RecipientOrderedExecutor
  * 'incoming' here means:
  * a. stanzas coming in from other servers
  * b. stanzas coming from other (local) sessions and are targeted to clients on this server
  *  
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
-public class DeliveringExternalInboundStanzaRelay implements StanzaRelay {
+public class DeliveringExternalInboundStanzaRelay implements AsyncStanzaRelay {
 
     final Logger logger = LoggerFactory.getLogger(DeliveringExternalInboundStanzaRelay.class);
 
-    protected ExecutorService executor;
+    protected RecipientOrderedExecutor executor;
 
     protected OfflineStanzaReceiver offlineStanzaReceiver = null;
 
     protected ServerRuntimeContext serverRuntimeContext = null;
 
+    /**
+     * false, if the executor is shared with other relays and is shut down elsewhere
+     */
+    private final boolean ownsExecutor;
+
     public DeliveringExternalInboundStanzaRelay() {
-        int coreThreadCount = 10;
-        int maxThreadCount = 20;
-        int threadTimeoutSeconds = 2 * 60 * 1000;
-        this.executor = new ThreadPoolExecutor(coreThreadCount, maxThreadCount, threadTimeoutSeconds, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>());
+        this.executor = new RecipientOrderedExecutor();
+        this.ownsExecutor = true;
     }
 
     public DeliveringExternalInboundStanzaRelay(ExecutorService executor) {
+        this(new RecipientOrderedExecutor(Runtime.getRuntime().availableProcessors(), executor));
+    }
+
+    /**
+     * creates a relay delivering through a (shared) executor. The executor is not shut down by this relay.
+     */
+    public DeliveringExternalInboundStanzaRelay(RecipientOrderedExecutor executor) {
         this.executor = executor;
+        this.ownsExecutor = false;
     }
 
     public void setServerRuntimeContext(ServerRuntimeContext serverRuntimeContext) {
         this.serverRuntimeContext = serverRuntimeContext;
     }
 
+    public RecipientOrderedExecutor getExecutor() {
+        return executor;
+    }
+
+    public void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
     public void relay(Entity receiver, Stanza stanza, DeliveryFailureStrategy deliveryFailureStrategy)
             throws DeliveryException {
+        relayAsync(receiver, stanza, deliveryFailureStrategy);
+    }
+
+    /**
+     * the returned stage completes after the stanza was written to the connector of the remote server.
+     */
+    public CompletionStage<RelayResult> relayAsync(Entity receiver, Stanza stanza,
+            DeliveryFailureStrategy deliveryFailureStrategy) {
         
         // rewrite the namespace into the jabber:server namespace
         stanza = StanzaBuilder.rewriteNamespace(stanza, NamespaceURIs.JABBER_SERVER);
         XMPPCoreStanza coreStanza = XMPPCoreStanza.getWrapper(stanza);
         
         if(coreStanza != null) {
-            Future<RelayResult> resultFuture = executor.submit(new OutboundRelayCallable(coreStanza, deliveryFailureStrategy));
+            String domain = serverRuntimeContext == null ? null : serverRuntimeContext.getServerEnitity().getDomain();
+            return executor.submit(domain, coreStanza.getTo(), new OutboundRelayCallable(coreStanza, deliveryFailureStrategy));
         } else {
             // ignore non-core stanzas
+            return CompletableFuture.completedFuture(new RelayResult());
         }
     }
     
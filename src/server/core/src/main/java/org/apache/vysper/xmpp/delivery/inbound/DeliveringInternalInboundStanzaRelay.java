@@ -19,27 +19,34 @@
  */
 package org.apache.vysper.xmpp.delivery.inbound;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import org.apache.vysper.compliance.SpecCompliant;
 import org.apache.vysper.storage.StorageProviderRegistry;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityUtils;
+import org.apache.vysper.xmpp.delivery.AsyncStanzaRelay;
 import org.apache.vysper.xmpp.authorization.AccountManagement;
+import org.apache.vysper.xmpp.delivery.MulticastStanzaRelay;
 import org.apache.vysper.xmpp.delivery.OfflineStanzaReceiver;
-import org.apache.vysper.xmpp.delivery.StanzaRelay;
 import org.apache.vysper.xmpp.delivery.failure.DeliveredToOfflineReceiverException;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryOverloadException;
 import org.apache.vysper.xmpp.delivery.failure.LocalRecipientOfflineException;
 import org.apache.vysper.xmpp.delivery.failure.NoSuchLocalUserException;
 import org.apache.vysper.xmpp.delivery.failure.ServiceNotAvailableException;
+import org.apache.vysper.xmpp.metrics.MetricsSink;
+import org.apache.vysper.xmpp.metrics.Stage;
+import org.apache.vysper.xmpp.metrics.StanzaKind;
 import org.apache.vysper.xmpp.modules.extension.xep0160_offline_storage.OfflineStorageProvider;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
 import org.apache.vysper.xmpp.protocol.StanzaHandler;
@@ -53,20 +60,24 @@ import org.apache.vysper.xmpp.stanza.MessageStanza;
 import org.apache.vysper.xmpp.stanza.MessageStanzaType;
 import org.apache.vysper.xmpp.stanza.PresenceStanza;
 import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaRenderCache;
 import org.apache.vysper.xmpp.stanza.XMPPCoreStanza;
 import org.apache.vysper.xmpp.state.resourcebinding.ResourceRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * relays all 'incoming' stanzas to internal sessions, acts as a 'stage' by using a ThreadPoolExecutor
+ * relays all 'incoming' stanzas to internal sessions, acts as a 'stage' by using a RecipientOrderedExecutor
+ * (stanzas for the same bare JID are delivered in the order they were relayed). If the lane of a receiver
+ * is saturated, the configured OverloadPolicy applies.
+ * stanzas relayed to many receivers (multicast) are delivered with one task per lane instead of one task per receiver.
  * 'incoming' here means:
  * a. stanzas coming in from other servers
  * b. stanzas coming from other (local) sessions and are targeted to clients on this server
  *  
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
-public class DeliveringInternalInboundStanzaRelay implements StanzaRelay {
+public class DeliveringInternalInboundStanzaRelay implements MulticastStanzaRelay, AsyncStanzaRelay {
 
     final Logger logger = LoggerFactory.getLogger(DeliveringInternalInboundStanzaRelay.class);
 
@@ -76,7 +87,7 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay {
 
     protected ResourceRegistry resourceRegistry;
 
-    protected ExecutorService executor;
+    protected RecipientOrderedExecutor executor;
 
     protected AccountManagement accountVerification;
 
@@ -86,6 +97,13 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay {
 
     protected ServerRuntimeContext serverRuntimeContext = null;
 
+    protected OverloadPolicy overloadPolicy = OverloadPolicy.SUSPEND_READS;
+
+    /**
+     * false, if the executor is shared with other relays and is shut down elsewhere
+     */
+    private final boolean ownsExecutor;
+
     public DeliveringInternalInboundStanzaRelay(Entity serverEntity, ResourceRegistry resourceRegistry,
             StorageProviderRegistry storageProviderRegistry) {
         this(serverEntity, resourceRegistry, (AccountManagement) storageProviderRegistry
@@ -94,24 +112,219 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay {
 
     public DeliveringInternalInboundStanzaRelay(Entity serverEntity, ResourceRegistry resourceRegistry,
             AccountManagement accountVerification, OfflineStanzaReceiver offlineStanzaReceiver) {
+        this(serverEntity, resourceRegistry, accountVerification, offlineStanzaReceiver, new RecipientOrderedExecutor(), true);
+    }
+
+    public DeliveringInternalInboundStanzaRelay(Entity serverEntity, ResourceRegistry resourceRegistry,
+            AccountManagement accountVerification, OfflineStanzaReceiver offlineStanzaReceiver, int laneCount) {
+        this(serverEntity, resourceRegistry, accountVerification, offlineStanzaReceiver, new RecipientOrderedExecutor(laneCount), true);
+    }
+
+    /**
+     * creates a relay delivering through a (shared) executor. The executor is not shut down by this relay.
+     */
+    public DeliveringInternalInboundStanzaRelay(Entity serverEntity, ResourceRegistry resourceRegistry,
+            AccountManagement accountVerification, OfflineStanzaReceiver offlineStanzaReceiver, RecipientOrderedExecutor executor) {
+        this(serverEntity, resourceRegistry, accountVerification, offlineStanzaReceiver, executor, false);
+    }
+
+    private DeliveringInternalInboundStanzaRelay(Entity serverEntity, ResourceRegistry resourceRegistry,
+            AccountManagement accountVerification, OfflineStanzaReceiver offlineStanzaReceiver, RecipientOrderedExecutor executor,
+            boolean ownsExecutor) {
         this.serverEntity = serverEntity;
         this.resourceRegistry = resourceRegistry;
         this.accountVerification = accountVerification;
         this.offlineStanzaReceiver =offlineStanzaReceiver;
-        int coreThreadCount = 10;
-        int maxThreadCount = 20;
-        int threadTimeoutSeconds = 2 * 60 * 1000;
-        this.executor = new ThreadPoolExecutor(coreThreadCount, maxThreadCount, threadTimeoutSeconds, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>());
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
     }
 
     public void setServerRuntimeContext(ServerRuntimeContext serverRuntimeContext) {
         this.serverRuntimeContext = serverRuntimeContext;
     }
 
+    /**
+     * @return the executor delivering the stanzas (lane count and queue depths are available there)
+     */
+    public RecipientOrderedExecutor getExecutor() {
+        return executor;
+    }
+
+    public void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * set the policy applied if the lane of a receiver is saturated (see RecipientOrderedExecutor#setLaneCapacity(int)) 
+     */
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    /**
+     * with SUSPEND_READS, a submission saturating a lane is remembered for the relaying thread. the stanza processor
+     * suspends reading from the session whose stanza was processed (see SessionThrottle). the executor may be shared by
+     * all domains, a flooded receiver must not throttle senders which don't send to it.
+     */
+    private boolean isBackPressure() {
+        return overloadPolicy == OverloadPolicy.SUSPEND_READS;
+    }
+
+    protected MetricsSink getMetricsSink() {
+        return serverRuntimeContext == null ? MetricsSink.NONE : serverRuntimeContext.getMetricsSink();
+    }
+
+    /**
+     * @return the current time if stage latencies are measured, 0 otherwise
+     */
+    private long queueTime() {
+        return getMetricsSink().isEnabled() ? System.nanoTime() : 0;
+    }
+
     public void relay(Entity receiver, Stanza stanza, DeliveryFailureStrategy deliveryFailureStrategy)
             throws DeliveryException {
-        Future<RelayResult> resultFuture = executor.submit(new Relay(receiver, stanza, deliveryFailureStrategy));
+        if (!admit(receiver, stanza, deliveryFailureStrategy)) {
+            return;
+        }
+        executor.submit(serverEntity.getDomain(), receiver, new Relay(receiver, stanza, deliveryFailureStrategy),
+                isBackPressure());
+    }
+
+    /**
+     * the returned stage completes on the delivering worker, after the failure strategy was run.
+     * a stanza rejected or dropped because of a saturated lane completes immediately with a DeliveryOverloadException.
+     */
+    public CompletionStage<RelayResult> relayAsync(Entity receiver, Stanza stanza,
+            DeliveryFailureStrategy deliveryFailureStrategy) {
+        try {
+            if (!admit(receiver, stanza, deliveryFailureStrategy)) {
+                return CompletableFuture.completedFuture(new RelayResult(new DeliveryOverloadException(
+                        "delivery queue saturated, presence dropped")));
+            }
+        } catch (DeliveryException e) {
+            return CompletableFuture.completedFuture(new RelayResult(e));
+        }
+        return executor.submit(serverEntity.getDomain(), receiver, new Relay(receiver, stanza, deliveryFailureStrategy),
+                isBackPressure());
+    }
+
+    /**
+     * receivers are grouped by their lane. all receivers of a group are delivered by one task, the template
+     * is addressed to each receiver on the worker. receivers sharing a session share their bare JID and are
+     * therefore always delivered in the same task.
+     */
+    public void multicast(Collection<Entity> receivers, Stanza template, DeliveryFailureStrategy deliveryFailureStrategy)
+            throws DeliveryException {
+        StanzaRenderCache.share(template, receivers.size());
+        Map<Integer, List<Entity>> lanes = new HashMap<Integer, List<Entity>>();
+        for (Entity receiver : receivers) {
+            Integer lane = executor.laneIndex(receiver);
+            List<Entity> laneReceivers = lanes.get(lane);
+            if (laneReceivers == null) {
+                laneReceivers = new ArrayList<Entity>();
+                lanes.put(lane, laneReceivers);
+            }
+            laneReceivers.add(receiver);
+        }
+        DeliveryException failure = null;
+        for (List<Entity> laneReceivers : lanes.values()) {
+            Entity first = laneReceivers.get(0);
+            if (overloadPolicy != OverloadPolicy.SUSPEND_READS
+                    && executor.getQueueDepth(first) >= executor.getLaneCapacity()) {
+                // rare case, address the stanza for the failure strategy
+                List<Entity> admitted = new ArrayList<Entity>(laneReceivers.size());
+                for (Entity receiver : laneReceivers) {
+                    try {
+                        if (admit(receiver, MulticastStanzaRelay.addressTo(template, receiver), deliveryFailureStrategy)) {
+                            admitted.add(receiver);
+                        }
+                    } catch (DeliveryException e) {
+                        failure = e;
+                    }
+                }
+                if (admitted.isEmpty()) {
+                    continue;
+                }
+                laneReceivers = admitted;
+            }
+            executor.submit(serverEntity.getDomain(), first, new MulticastRelay(laneReceivers, template,
+                    deliveryFailureStrategy), isBackPressure());
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * applies the overload policy if the lane of the receiver is saturated
+     * @return false, if the stanza was silently dropped
+     * @throws DeliveryOverloadException if the stanza was rejected (after running the failure strategy)
+     */
+    protected boolean admit(Entity receiver, Stanza stanza, DeliveryFailureStrategy deliveryFailureStrategy)
+            throws DeliveryException {
+        int capacity = executor.getLaneCapacity();
+        int depth = executor.getQueueDepth(receiver);
+        if (depth < capacity || overloadPolicy == OverloadPolicy.SUSPEND_READS) {
+            return true;
+        }
+        if (overloadPolicy == OverloadPolicy.SHED_PRESENCE) {
+            if (PresenceStanza.isOfType(stanza)) {
+                logger.debug("delivery lane saturated, dropping presence to {}", receiver);
+                return false;
+            }
+            if (depth < 2L * capacity) {
+                return true;
+            }
+        }
+        DeliveryOverloadException overload = new DeliveryOverloadException("delivery queue saturated");
+        if (deliveryFailureStrategy != null) {
+            XMPPCoreStanza coreStanza = XMPPCoreStanza.getWrapper(stanza);
+            try {
+                deliveryFailureStrategy.process(this, coreStanza == null ? stanza : coreStanza,
+                        Collections.<DeliveryException> singletonList(overload));
+            } catch (DeliveryException e) {
+                logger.debug("failure strategy for saturated delivery lane failed", e);
+            } catch (RuntimeException e) {
+                logger.debug("failure strategy for saturated delivery lane failed", e);
+            }
+        }
+        throw overload;
+    }
+
+    private class MulticastRelay implements Callable<RelayResult> {
+        private List<Entity> receivers;
+
+        private Stanza template;
+
+        private DeliveryFailureStrategy deliveryFailureStrategy;
+
+        private final long queuedAt = queueTime();
+
+        MulticastRelay(List<Entity> receivers, Stanza template, DeliveryFailureStrategy deliveryFailureStrategy) {
+            this.receivers = receivers;
+            this.template = template;
+            this.deliveryFailureStrategy = deliveryFailureStrategy;
+        }
+
+        public RelayResult call() {
+            RelayResult multicastResult = new RelayResult();
+            for (Entity receiver : receivers) {
+                Stanza stanza = MulticastStanzaRelay.addressTo(template, receiver);
+                RelayResult relayResult = new Relay(receiver, stanza, deliveryFailureStrategy, queuedAt).call();
+                if (relayResult.hasProcessingErrors()) {
+                    for (DeliveryException e : relayResult.getProcessingErrors()) {
+                        multicastResult.addProcessingError(e);
+                    }
+                }
+            }
+            return multicastResult;
+        }
     }
 
     private class Relay implements Callable<RelayResult> {
@@ -123,10 +336,20 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay {
 
         protected final UnmodifyableSessionStateHolder sessionStateHolder = new UnmodifyableSessionStateHolder();
 
+        /**
+         * the time the relay was queued, 0 if stage latencies are not measured
+         */
+        private final long queuedAt;
+
         Relay(Entity receiver, Stanza stanza, DeliveryFailureStrategy deliveryFailureStrategy) {
+            this(receiver, stanza, deliveryFailureStrategy, queueTime());
+        }
+
+        Relay(Entity receiver, Stanza stanza, DeliveryFailureStrategy deliveryFailureStrategy, long queuedAt) {
             this.receiver = receiver;
             this.stanza = stanza;
             this.deliveryFailureStrategy = deliveryFailureStrategy;
+            this.queuedAt = queuedAt;
         }
 
         public Entity getReceiver() {
@@ -142,8 +365,22 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay {
         }
 
         public RelayResult call() {
-            RelayResult relayResult = deliver();
-            if (relayResult == null || !relayResult.hasProcessingErrors())
+            RelayResult relayResult;
+            if (queuedAt == 0) {
+                relayResult = deliver();
+            } else {
+                MetricsSink metrics = getMetricsSink();
+                StanzaKind kind = StanzaKind.of(stanza);
+                long start = System.nanoTime();
+                metrics.record(Stage.RELAY_QUEUE, kind, serverEntity.getDomain(), start - queuedAt);
+                relayResult = deliver();
+                metrics.record(Stage.DELIVER, kind, serverEntity.getDomain(), System.nanoTime() - start);
+            }
+            if (relayResult == null) {
+                // silently ignored
+                return new RelayResult();
+            }
+            if (!relayResult.hasProcessingErrors())
                 return relayResult;
             return runFailureStrategy(relayResult);
         }
@@ -305,8 +542,7 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay {
                 }
                 try {
                     StanzaHandler stanzaHandler = receivingSession.getServerRuntimeContext().getHandler(stanza);
-                    INBOUND_STANZA_PROTOCOL_WORKER.processStanza(receivingSession, sessionStateHolder, stanza,
-                            stanzaHandler);
+                    write(receivingSession, stanzaHandler);
                 } catch (Exception e) {
                     relayResult.addProcessingError(new DeliveryException("no relay to non-authenticated sessions"));
                     continue;
@@ -316,6 +552,22 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay {
             return relayResult;
         }
 
+        private void write(SessionContext receivingSession, StanzaHandler stanzaHandler) {
+            if (queuedAt == 0) {
+                INBOUND_STANZA_PROTOCOL_WORKER.processStanza(receivingSession, sessionStateHolder, stanza,
+                        stanzaHandler);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                INBOUND_STANZA_PROTOCOL_WORKER.processStanza(receivingSession, sessionStateHolder, stanza,
+                        stanzaHandler);
+            } finally {
+                getMetricsSink().record(Stage.WRITE, StanzaKind.of(stanza), serverEntity.getDomain(),
+                        System.nanoTime() - start);
+            }
+        }
+
         protected RelayResult relayToAllSessions() {
             return relayToAllSessions(null);
         }
@@ -342,8 +594,7 @@ public class DeliveringInternalInboundStanzaRelay implements StanzaRelay {
                 }
                 try {
                     StanzaHandler stanzaHandler = sessionContext.getServerRuntimeContext().getHandler(stanza);
-                    INBOUND_STANZA_PROTOCOL_WORKER.processStanza(sessionContext, sessionStateHolder, stanza,
-                            stanzaHandler);
+                    write(sessionContext, stanzaHandler);
                 } catch (Exception e) {
                     relayResult.addProcessingError(new DeliveryException(e));
                 }
@@ -0,0 +1,24 @@
+package org.apache.vysper.xmpp.delivery.inbound;
+
+/**
+ * Describes how a relay reacts if the delivery lane of a receiver is saturated.
+ * 
+ * @author notalexa
+ *
+ */
+public enum OverloadPolicy {
+	/**
+	 * Accept the stanza, but suspend reading from the session whose stanza saturated the lane of the receiver.
+	 * Reading is resumed as soon as the lanes are relieved.
+	 */
+	SUSPEND_READS,
+	/**
+	 * Silently drop presence stanzas for saturated lanes. Messages and IQs are accepted up to twice the lane capacity
+	 * and answered with a wait type error afterwards.
+	 */
+	SHED_PRESENCE,
+	/**
+	 * Answer every stanza for a saturated lane with a wait type error.
+	 */
+	WAIT_ERROR;
+}
@@ -0,0 +1,509 @@
+package org.apache.vysper.xmpp.delivery.inbound;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes delivery tasks in lanes sharded by the bare JID of the receiver. Every lane is consumed by at most
+ * one worker at a time. Therefore, tasks for the same receiver are executed in the order of submission while
+ * different receivers are spread over all lanes (and cores).
+ * <br>The executor may be shared by the relays of several domains. The number of submissions is counted per
+ * domain to see which domain drives the load.
+ * <br>The lanes are either drained by a fixed pool of platform threads or (if supported by the runtime) by
+ * virtual threads. In the latter case, a blocking delivery (MINA write, offline storage) does not occupy a platform
+ * thread and a much higher lane count can be used.
+ * <br>Lanes have a (soft) capacity. The executor never rejects a task by itself, but reports lanes at or above their
+ * capacity as saturated. It's up to the submitter (see {@link OverloadPolicy}) to react on saturation. The lanes a
+ * thread saturated with submissions requesting back pressure are remembered per thread (for all executors), that is
+ * only the sender whose stanzas fill a lane is asked to back off (see {@link #takeSaturation()}).
+ *
+ * @author notalexa
+ *
+ */
+public class RecipientOrderedExecutor {
+	/**
+	 * Maximum number of tasks a lane executes before yielding its worker to other lanes.
+	 */
+	private static final int DRAIN_BATCH=64;
+
+	/**
+	 * Lanes drained by virtual threads are cheap. Use much more of them to reduce head of line blocking.
+	 */
+	private static final int VIRTUAL_LANES_PER_PROCESSOR=64;
+
+	private static final AtomicInteger POOL_COUNT=new AtomicInteger();
+
+	/**
+	 * The lanes saturated by the back pressure submissions of a thread since the last call of {@link #takeSaturation()}.
+	 */
+	private static final ThreadLocal<List<Lane>> SATURATED=new ThreadLocal<List<Lane>>() {
+		@Override
+		protected List<Lane> initialValue() {
+			return new ArrayList<Lane>(2);
+		}
+	};
+
+	final Logger logger = LoggerFactory.getLogger(RecipientOrderedExecutor.class);
+
+	private final Lane[] lanes;
+	private final ExecutorService workers;
+	private final Map<String,AtomicLong> submissions=new ConcurrentHashMap<String,AtomicLong>();
+	private volatile int laneCapacity=Integer.MAX_VALUE;
+
+	/**
+	 * Create an executor with one lane per available processor.
+	 */
+	public RecipientOrderedExecutor() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 *
+	 * @param laneCount the number of lanes (and worker threads)
+	 */
+	public RecipientOrderedExecutor(int laneCount) {
+		this(laneCount,Executors.newFixedThreadPool(laneCount,new LaneThreadFactory()));
+	}
+
+	/**
+	 *
+	 * @param laneCount the number of lanes
+	 * @param workers the executor draining the lanes. A lane occupies at most one worker at a time.
+	 */
+	public RecipientOrderedExecutor(int laneCount,ExecutorService workers) {
+		if(laneCount<1) {
+			throw new IllegalArgumentException("lane count must be positive: "+laneCount);
+		}
+		lanes=new Lane[laneCount];
+		for(int i=0;i<laneCount;i++) {
+			lanes[i]=new Lane();
+		}
+		this.workers=workers;
+	}
+
+	/**
+	 *
+	 * @param virtualThreads <code>true</code> if the lanes should be drained by virtual threads
+	 * @return the default lane count for the given mode
+	 */
+	public static int getDefaultLaneCount(boolean virtualThreads) {
+		int processors=Runtime.getRuntime().availableProcessors();
+		return virtualThreads?VIRTUAL_LANES_PER_PROCESSOR*processors:processors;
+	}
+
+	/**
+	 * Create an executor in the given mode with the default lane count. The lane count is chosen for the mode
+	 * actually used, that is a runtime without virtual threads gets the (small) lane count of platform threads.
+	 *
+	 * @see #create(int, boolean)
+	 */
+	public static RecipientOrderedExecutor create(boolean virtualThreads) {
+		if(virtualThreads) {
+			ExecutorService workers=newVirtualThreadPerTaskExecutor();
+			if(workers!=null) {
+				return new RecipientOrderedExecutor(getDefaultLaneCount(true),workers);
+			}
+			LoggerFactory.getLogger(RecipientOrderedExecutor.class).warn("virtual threads are not supported by this runtime, using platform threads");
+		}
+		return new RecipientOrderedExecutor(getDefaultLaneCount(false));
+	}
+
+	/**
+	 * Create an executor. If virtual threads are requested but not supported by the runtime, a warning is logged and
+	 * the lanes are drained by platform threads.
+	 *
+	 * @param laneCount the number of lanes
+	 * @param virtualThreads <code>true</code> if every lane should be drained by a virtual thread
+	 * @return the executor
+	 */
+	public static RecipientOrderedExecutor create(int laneCount,boolean virtualThreads) {
+		if(virtualThreads) {
+			ExecutorService workers=newVirtualThreadPerTaskExecutor();
+			if(workers!=null) {
+				return new RecipientOrderedExecutor(laneCount,workers);
+			}
+			LoggerFactory.getLogger(RecipientOrderedExecutor.class).warn("virtual threads are not supported by this runtime, using platform threads");
+		}
+		return new RecipientOrderedExecutor(laneCount);
+	}
+
+	/**
+	 * Virtual threads are resolved reflectively since they are not available on all supported runtimes.
+	 *
+	 * @return a virtual thread per task executor or <code>null</code> if not supported
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method factory=Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)factory.invoke(null);
+		} catch(Throwable t) {
+			return null;
+		}
+	}
+
+	/**
+	 * Submit a task for the given receiver. The submission is accounted to the domain of the receiver.
+	 *
+	 * @param receiver the receiver of the stanza
+	 * @param task the task to execute
+	 * @return the future of the task
+	 * @see #submit(String, Entity, Callable)
+	 */
+	public <T> CompletableFuture<T> submit(Entity receiver,Callable<T> task) {
+		return submit(receiver==null?null:receiver.getDomain(),receiver,task);
+	}
+
+	/**
+	 * Submit a task for the given receiver without back pressure.
+	 *
+	 * @see #submit(String, Entity, Callable, boolean)
+	 */
+	public <T> CompletableFuture<T> submit(String domain,Entity receiver,Callable<T> task) {
+		return submit(domain,receiver,task,false);
+	}
+
+	/**
+	 * Submit a task for the given receiver. Tasks for receivers with the same bare JID are executed
+	 * in the order of submission.
+	 *
+	 * @param domain the domain the submission is accounted to (in general the domain of the submitting relay)
+	 * @param receiver the receiver of the stanza
+	 * @param task the task to execute
+	 * @param backPressure <code>true</code> if the lane should be remembered for {@link #takeSaturation()} if the
+	 * submission saturates it
+	 * @return the future of the task. The future completes on the worker executing the task (dependent stages
+	 * without an explicit executor run on this worker and should be short).
+	 */
+	public <T> CompletableFuture<T> submit(String domain,Entity receiver,Callable<T> task,boolean backPressure) {
+		CompletableFuture<T> future=new CompletableFuture<T>();
+		lanes[laneIndex(receiver)].add(backPressure,()->{
+			if(!future.isDone()) {
+				try {
+					future.complete(task.call());
+				} catch(Throwable t) {
+					future.completeExceptionally(t);
+				}
+			}
+		});
+		if(domain!=null) {
+			AtomicLong count=submissions.get(domain);
+			if(count==null) {
+				count=submissions.computeIfAbsent(domain, d->new AtomicLong());
+			}
+			count.incrementAndGet();
+		}
+		return future;
+	}
+
+	/**
+	 * The lane index is derived from node and domain of the receiver. The resource is ignored
+	 * (and no bare JID needs to be created).
+	 */
+	protected int laneIndex(Entity receiver) {
+		int hash=0;
+		if(receiver!=null) {
+			String node=receiver.getNode();
+			String domain=receiver.getDomain();
+			hash=31*(node==null?0:node.hashCode())+(domain==null?0:domain.hashCode());
+			hash^=hash>>>16;
+		}
+		return (hash&0x7fffffff)%lanes.length;
+	}
+
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	/**
+	 * The capacity may be changed at any time. Raising it relieves the lanes below the new capacity.
+	 *
+	 * @param laneCapacity the number of waiting tasks a lane can take before it is considered saturated
+	 */
+	public void setLaneCapacity(int laneCapacity) {
+		if(laneCapacity<1) {
+			throw new IllegalArgumentException("lane capacity must be positive: "+laneCapacity);
+		}
+		this.laneCapacity=laneCapacity;
+		for(Lane lane:lanes) {
+			lane.relieve();
+		}
+	}
+
+	public int getLaneCapacity() {
+		return laneCapacity;
+	}
+
+	/**
+	 *
+	 * @param receiver the receiver
+	 * @return the number of tasks waiting in the lane of the receiver
+	 */
+	public int getQueueDepth(Entity receiver) {
+		return lanes[laneIndex(receiver)].depth.get();
+	}
+
+	/**
+	 * For monitoring. Use {@link #takeSaturation()} to decide if a sender should back off.
+	 *
+	 * @return <code>true</code> if at least one lane is at or above its capacity
+	 */
+	public boolean isSaturated() {
+		int capacity=laneCapacity;
+		for(Lane lane:lanes) {
+			if(lane.depth.get()>=capacity) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Take the lanes (of any executor) the current thread saturated with back pressure submissions since the last call.
+	 * The stanza processor calls this after processing a stanza, that is the lanes are attributed to the session
+	 * which sent the stanza.
+	 *
+	 * @return the lanes which are still at or above their capacity or <code>null</code> if there are none
+	 */
+	public static Saturation takeSaturation() {
+		List<Lane> saturated=SATURATED.get();
+		if(saturated.isEmpty()) {
+			return null;
+		}
+		List<Lane> pending=new ArrayList<Lane>(saturated.size());
+		for(Lane lane:saturated) {
+			if(lane.isSaturated()) {
+				pending.add(lane);
+			}
+		}
+		saturated.clear();
+		return pending.isEmpty()?null:new Saturation(pending.toArray(new Lane[pending.size()]));
+	}
+
+	/**
+	 *
+	 * @param lane the index of the lane
+	 * @return the number of tasks waiting in the given lane
+	 */
+	public int getQueueDepth(int lane) {
+		return lanes[lane].depth.get();
+	}
+
+	/**
+	 *
+	 * @return the number of waiting tasks for all lanes
+	 */
+	public int[] getQueueDepths() {
+		int[] depths=new int[lanes.length];
+		for(int i=0;i<lanes.length;i++) {
+			depths[i]=lanes[i].depth.get();
+		}
+		return depths;
+	}
+
+	/**
+	 *
+	 * @return the total number of waiting tasks
+	 */
+	public int getQueuedTaskCount() {
+		int count=0;
+		for(Lane lane:lanes) {
+			count+=lane.depth.get();
+		}
+		return count;
+	}
+
+	/**
+	 *
+	 * @param domain the domain
+	 * @return the number of tasks submitted on behalf of the domain
+	 */
+	public long getSubmissionCount(String domain) {
+		AtomicLong count=submissions.get(domain);
+		return count==null?0:count.get();
+	}
+
+	/**
+	 *
+	 * @return a snapshot of the number of submitted tasks per domain
+	 */
+	public Map<String,Long> getSubmissionCounts() {
+		Map<String,Long> counts=new HashMap<String,Long>();
+		for(Map.Entry<String,AtomicLong> entry:submissions.entrySet()) {
+			counts.put(entry.getKey(),entry.getValue().get());
+		}
+		return counts;
+	}
+
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	/**
+	 * A lane is a queue of tasks which is drained by at most one worker at a time.
+	 */
+	private class Lane implements Runnable {
+		private final Queue<Runnable> queue=new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicInteger depth=new AtomicInteger();
+		private final AtomicBoolean scheduled=new AtomicBoolean();
+
+		private final Queue<Waiter> waiters=new ConcurrentLinkedQueue<Waiter>();
+
+		void add(boolean backPressure,Runnable task) {
+			queue.add(task);
+			if(depth.incrementAndGet()>=laneCapacity&&backPressure) {
+				List<Lane> saturated=SATURATED.get();
+				if(!saturated.contains(this)) {
+					saturated.add(this);
+				}
+			}
+			schedule();
+		}
+
+		boolean isSaturated() {
+			return depth.get()>=laneCapacity;
+		}
+
+		/**
+		 * Wake up the waiters if the lane is below its capacity.
+		 */
+		private void relieve() {
+			if(!waiters.isEmpty()&&!isSaturated()) {
+				// a waiter re-adds itself if the lane is saturated again, it's awaited on the next relief
+				Waiter waiter;
+				for(int n=waiters.size();n>0&&(waiter=waiters.poll())!=null;n--) {
+					waiter.await();
+				}
+			}
+		}
+
+		private void schedule() {
+			if(scheduled.compareAndSet(false, true)) {
+				try {
+					workers.execute(this);
+				} catch(RejectedExecutionException e) {
+					scheduled.set(false);
+					throw e;
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				for(int i=0;i<DRAIN_BATCH;i++) {
+					Runnable task=queue.poll();
+					if(task==null) {
+						break;
+					}
+					// the capacity may have changed since the lane became saturated
+					if(depth.decrementAndGet()<laneCapacity) {
+						relieve();
+					}
+					try {
+						task.run();
+					} catch(RuntimeException e) {
+						logger.warn("delivery task failed", e);
+					}
+				}
+			} finally {
+				scheduled.set(false);
+				// a producer may have added a task after the last poll without being able to schedule
+				if(!queue.isEmpty()) {
+					schedule();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lanes saturated by the stanzas of a sender (see {@link RecipientOrderedExecutor#takeSaturation()}).
+	 */
+	public static final class Saturation {
+		private final Lane[] lanes;
+
+		private Saturation(Lane[] lanes) {
+			this.lanes=lanes;
+		}
+
+		/**
+		 * Run the listener as soon as all lanes are relieved. If they already are, the listener runs immediately (on
+		 * the calling thread). Otherwise, it runs once on the worker which relieved the last of the lanes.
+		 *
+		 * @param listener the listener to run
+		 */
+		public void whenRelieved(Runnable listener) {
+			new Waiter(listener,lanes).await();
+		}
+	}
+
+	/**
+	 * Waits for a set of lanes, one lane at a time.
+	 */
+	private static class Waiter {
+		private final Runnable listener;
+		private final Lane[] lanes;
+		private int next;
+		private final AtomicBoolean done=new AtomicBoolean();
+
+		private Waiter(Runnable listener,Lane[] lanes) {
+			this.listener=listener;
+			this.lanes=lanes;
+		}
+
+		/**
+		 * Wait for the next saturated lane or run the listener if there is none.
+		 */
+		private synchronized void await() {
+			if(done.get()) {
+				return;
+			}
+			for(;next<lanes.length;next++) {
+				Lane lane=lanes[next];
+				if(lane.isSaturated()) {
+					lane.waiters.add(this);
+					// the lane may have been relieved before the waiter was added
+					if(lane.isSaturated()) {
+						return;
+					}
+					lane.waiters.remove(this);
+				}
+			}
+			if(done.compareAndSet(false,true)) {
+				try {
+					listener.run();
+				} catch(RuntimeException e) {
+					LoggerFactory.getLogger(RecipientOrderedExecutor.class).warn("relieved listener failed", e);
+				}
+			}
+		}
+	}
+
+	private static class LaneThreadFactory implements ThreadFactory {
+		private final String prefix="vysper-relay-"+POOL_COUNT.incrementAndGet()+"-lane-";
+		private final AtomicInteger count=new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r,prefix+count.incrementAndGet());
+		}
+	}
+}
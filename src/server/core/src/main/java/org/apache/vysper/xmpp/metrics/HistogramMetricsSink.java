@@ -0,0 +1,68 @@
+package org.apache.vysper.xmpp.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the latencies in a histogram per stage, stanza kind and domain.
+ * 
+ * @author notalexa
+ *
+ */
+public class HistogramMetricsSink implements MetricsSink {
+	private static final StanzaKind[] KINDS=StanzaKind.values();
+	
+	@SuppressWarnings("unchecked")
+	private final Map<String,LatencyHistogram>[] histograms=new Map[Stage.values().length*KINDS.length];
+	
+	public HistogramMetricsSink() {
+		for(int i=0;i<histograms.length;i++) {
+			histograms[i]=new ConcurrentHashMap<String,LatencyHistogram>();
+		}
+	}
+
+	@Override
+	public void record(Stage stage, StanzaKind kind, String domain, long nanos) {
+		Map<String,LatencyHistogram> domainHistograms=histograms[index(stage,kind)];
+		String key=domain==null?"":domain;
+		LatencyHistogram histogram=domainHistograms.get(key);
+		if(histogram==null) {
+			histogram=domainHistograms.computeIfAbsent(key, d->new LatencyHistogram());
+		}
+		histogram.record(nanos);
+	}
+	
+	/**
+	 * 
+	 * @param stage the stage
+	 * @param kind the stanza kind
+	 * @param domain the domain
+	 * @return the histogram or <code>null</code> if nothing was recorded for this combination
+	 */
+	public LatencyHistogram getHistogram(Stage stage,StanzaKind kind,String domain) {
+		return histograms[index(stage,kind)].get(domain==null?"":domain);
+	}
+	
+	/**
+	 * 
+	 * @return a report of p50/p99/p999 per stage, stanza kind and domain (one line each)
+	 */
+	public String getReport() {
+		StringBuilder report=new StringBuilder();
+		for(Stage stage:Stage.values()) {
+			for(StanzaKind kind:KINDS) {
+				for(Map.Entry<String,LatencyHistogram> entry:histograms[index(stage,kind)].entrySet()) {
+					report.append(stage.name().toLowerCase()).append(' ')
+						.append(kind.name().toLowerCase()).append(' ')
+						.append(entry.getKey()).append(": ")
+						.append(entry.getValue()).append('\n');
+				}
+			}
+		}
+		return report.toString();
+	}
+	
+	private static int index(Stage stage,StanzaKind kind) {
+		return stage.ordinal()*KINDS.length+kind.ordinal();
+	}
+}
@@ -0,0 +1,109 @@
+package org.apache.vysper.xmpp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies (in nanoseconds). Every power of two is divided into eight buckets, therefore
+ * the relative error of a percentile is below 12.5%. Recording a value is a single atomic increment (plus the update of the maximum).
+ * 
+ * @author notalexa
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS=3;
+	private static final int SUB_BUCKETS=1<<SUB_BUCKET_BITS;
+	
+	private final AtomicLongArray counts=new AtomicLongArray((64-SUB_BUCKET_BITS)*SUB_BUCKETS);
+	private final AtomicLong max=new AtomicLong();
+	
+	public void record(long nanos) {
+		if(nanos<0) {
+			nanos=0;
+		}
+		counts.incrementAndGet(bucket(nanos));
+		long current=max.get();
+		while(nanos>current&&!max.compareAndSet(current, nanos)) {
+			current=max.get();
+		}
+	}
+	
+	/**
+	 * 
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		long count=0;
+		for(int i=0;i<counts.length();i++) {
+			count+=counts.get(i);
+		}
+		return count;
+	}
+	
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * 
+	 * @param quantile the quantile (between 0 and 1)
+	 * @return the (upper bound of the) latency at the given quantile in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getPercentile(double quantile) {
+		long[] snapshot=new long[counts.length()];
+		long total=0;
+		for(int i=0;i<snapshot.length;i++) {
+			total+=snapshot[i]=counts.get(i);
+		}
+		if(total==0) {
+			return 0;
+		}
+		long rank=Math.max(1,(long)Math.ceil(quantile*total));
+		long seen=0;
+		for(int i=0;i<snapshot.length;i++) {
+			seen+=snapshot[i];
+			if(seen>=rank) {
+				return Math.min(upperBound(i),getMax());
+			}
+		}
+		return getMax();
+	}
+	
+	public long getP50() {
+		return getPercentile(0.5);
+	}
+	
+	public long getP99() {
+		return getPercentile(0.99);
+	}
+	
+	public long getP999() {
+		return getPercentile(0.999);
+	}
+	
+	/**
+	 * Values below {@link #SUB_BUCKETS} have a bucket of their own.
+	 */
+	static int bucket(long value) {
+		if(value<SUB_BUCKETS) {
+			return (int)value;
+		}
+		int exponent=63-Long.numberOfLeadingZeros(value);
+		int sub=(int)(value>>>(exponent-SUB_BUCKET_BITS))&(SUB_BUCKETS-1);
+		return (exponent-SUB_BUCKET_BITS+1)*SUB_BUCKETS+sub;
+	}
+	
+	static long upperBound(int bucket) {
+		if(bucket<SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent=bucket/SUB_BUCKETS+SUB_BUCKET_BITS-1;
+		long width=1L<<(exponent-SUB_BUCKET_BITS);
+		return (1L<<exponent)+(bucket%SUB_BUCKETS)*width+width-1;
+	}
+
+	@Override
+	public String toString() {
+		return "count="+getCount()+", p50="+getP50()/1000+"us, p99="+getP99()/1000+"us, p999="+getP999()/1000+"us, max="+getMax()/1000+"us";
+	}
+}
@@ -0,0 +1,42 @@
+package org.apache.vysper.xmpp.metrics;
+
+/**
+ * Receives the latencies of the stages of the stanza pipeline. Implementations are called on the hot path
+ * and should not block.
+ * 
+ * @author notalexa
+ *
+ */
+public interface MetricsSink {
+	/**
+	 * The sink used if no metrics are collected. The pipeline doesn't even measure.
+	 */
+	public static final MetricsSink NONE=new MetricsSink() {
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+
+		@Override
+		public void record(Stage stage, StanzaKind kind, String domain, long nanos) {
+		}
+	};
+	
+	/**
+	 * 
+	 * @return <code>true</code> if latencies should be measured and recorded
+	 */
+	public default boolean isEnabled() {
+		return true;
+	}
+	
+	/**
+	 * Record the latency of a stage.
+	 * 
+	 * @param stage the stage
+	 * @param kind the kind of the stanza
+	 * @param domain the domain processing the stanza
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(Stage stage,StanzaKind kind,String domain,long nanos);
+}
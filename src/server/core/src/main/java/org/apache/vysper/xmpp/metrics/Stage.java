@@ -0,0 +1,39 @@
+package org.apache.vysper.xmpp.metrics;
+
+/**
+ * The stages of the stanza pipeline, from the bytes arriving at the transport to the stanza
+ * being written to the session of the receiver.
+ * 
+ * @author notalexa
+ *
+ */
+public enum Stage {
+	/**
+	 * From the first buffer read for a stanza to the decoded stanza arriving at the IO handler.
+	 */
+	DECODE,
+	/**
+	 * Waiting in the queue of the stanza processor.
+	 */
+	PROCESSOR_QUEUE,
+	/**
+	 * The protocol worker processing the stanza (including the handler).
+	 */
+	PROCESS,
+	/**
+	 * The handler executing the stanza (including writing the response).
+	 */
+	HANDLER,
+	/**
+	 * Waiting in the delivery lane of the relay.
+	 */
+	RELAY_QUEUE,
+	/**
+	 * Delivering the stanza (resolving the receiving sessions and writing to them).
+	 */
+	DELIVER,
+	/**
+	 * Writing the stanza to the session of a receiver (including encoding).
+	 */
+	WRITE;
+}
@@ -0,0 +1,29 @@
+package org.apache.vysper.xmpp.metrics;
+
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * The kind of a stanza as used to tag metrics.
+ * 
+ * @author notalexa
+ *
+ */
+public enum StanzaKind {
+	IQ,MESSAGE,PRESENCE,OTHER;
+	
+	/**
+	 * 
+	 * @param stanza the stanza
+	 * @return the kind of the stanza
+	 */
+	public static StanzaKind of(Stanza stanza) {
+		if(stanza!=null) {
+			switch(stanza.getName()) {
+				case "iq":return IQ;
+				case "message":return MESSAGE;
+				case "presence":return PRESENCE;
+			}
+		}
+		return OTHER;
+	}
+}
@@ -0,0 +1,47 @@
+package org.apache.vysper.xmpp.metrics;
+
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.SessionState;
+
+/**
+ * Carries the time a stanza was handed to the stanza processor through the (queued) processor, so that the
+ * protocol worker is able to measure the queue wait. The state is held by the wrapped holder.
+ * 
+ * @author notalexa
+ *
+ */
+public class TimestampedSessionStateHolder extends SessionStateHolder {
+	private final SessionStateHolder delegate;
+	private final long timestamp;
+	
+	public TimestampedSessionStateHolder(SessionStateHolder delegate,long timestamp) {
+		this.delegate=delegate;
+		this.timestamp=timestamp;
+	}
+
+	@Override
+	public SessionState getState() {
+		return delegate.getState();
+	}
+
+	@Override
+	public void setState(SessionState newState) {
+		delegate.setState(newState);
+	}
+	
+	/**
+	 * 
+	 * @return the state holder of the session
+	 */
+	public SessionStateHolder getDelegate() {
+		return delegate;
+	}
+	
+	/**
+	 * 
+	 * @return the time (in terms of {@link System#nanoTime()}) the stanza was handed to the processor
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+}
@@ -0,0 +1,76 @@
+package org.apache.vysper.xmpp.modules.core.compression;
+
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLFragment;
+import org.apache.vysper.xml.fragment.XMLText;
+import org.apache.vysper.xmpp.protocol.ProtocolException;
+import org.apache.vysper.xmpp.protocol.ResponseStanzaContainer;
+import org.apache.vysper.xmpp.protocol.ResponseStanzaContainerImpl;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.protocol.StanzaHandler;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ * Handles the <code>compress</code> request of XEP-0138. Compression is negotiated after authentication and before
+ * resources are bound. On success, the stream is restarted (compressed).
+ *
+ * @author notalexa
+ *
+ */
+public class CompressionHandler implements StanzaHandler {
+
+	@Override
+	public String getName() {
+		return "compress";
+	}
+
+	@Override
+	public boolean verify(Stanza stanza) {
+		return stanza!=null&&"compress".equals(stanza.getName())&&StreamCompression.NAMESPACE_URI.equals(stanza.getNamespaceURI());
+	}
+
+	@Override
+	public boolean isSessionRequired() {
+		return true;
+	}
+
+	@Override
+	public ResponseStanzaContainer execute(Stanza stanza, ServerRuntimeContext serverRuntimeContext, boolean isOutboundStanza, SessionContext sessionContext, SessionStateHolder sessionStateHolder) throws ProtocolException {
+		StreamCompression compression=(StreamCompression)sessionContext.getAttribute(StreamCompression.SESSION_ATTRIBUTE);
+		if(compression==null||compression.isActive()
+				||sessionStateHolder.getState()!=SessionState.AUTHENTICATED
+				||!sessionContext.getBoundResources().isEmpty()) {
+			return failure("setup-failed");
+		}
+		String method=getMethod(stanza);
+		if(method==null||!compression.getMethods().contains(method)) {
+			return failure("unsupported-method");
+		}
+		compression.start(method,new StanzaBuilder("compressed",StreamCompression.NAMESPACE_URI).build());
+		sessionContext.setIsReopeningXMLStream();
+		return null;
+	}
+
+	private String getMethod(Stanza stanza) {
+		XMLElement method=stanza.getFirstInnerElement();
+		if(method==null||!"method".equals(method.getName())) {
+			return null;
+		}
+		StringBuilder name=new StringBuilder();
+		for(XMLFragment fragment:method.getInnerFragments()) {
+			if(fragment instanceof XMLText) {
+				name.append(((XMLText)fragment).getText());
+			}
+		}
+		return name.toString().trim();
+	}
+
+	private ResponseStanzaContainer failure(String condition) {
+		return new ResponseStanzaContainerImpl(new StanzaBuilder("failure",StreamCompression.NAMESPACE_URI)
+				.startInnerElement(condition,StreamCompression.NAMESPACE_URI).endInnerElement().build());
+	}
+}
@@ -0,0 +1,16 @@
+package org.apache.vysper.xmpp.modules.core.compression;
+
+import org.apache.vysper.xmpp.protocol.NamespaceHandlerDictionary;
+
+/**
+ * The handlers of stream compression (XEP-0138).
+ *
+ * @author notalexa
+ *
+ */
+public class CompressionStanzaDictionary extends NamespaceHandlerDictionary {
+
+	public CompressionStanzaDictionary() {
+		super(StreamCompression.NAMESPACE_URI,new CompressionHandler());
+	}
+}
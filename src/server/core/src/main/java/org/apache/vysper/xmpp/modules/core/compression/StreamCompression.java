@@ -0,0 +1,41 @@
+package org.apache.vysper.xmpp.modules.core.compression;
+
+import java.util.List;
+
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * The stream compression (XEP-0138) of a session. The transport of a session supporting compression puts its
+ * implementation into the session attribute {@link #SESSION_ATTRIBUTE}. Compression is offered as a stream feature
+ * after authentication and negotiated by the {@link CompressionHandler}.
+ *
+ * @author notalexa
+ *
+ */
+public interface StreamCompression {
+	public static final String SESSION_ATTRIBUTE="session.stream_compression";
+	public static final String NAMESPACE_URI="http://jabber.org/protocol/compress";
+	public static final String FEATURE_NAMESPACE_URI="http://jabber.org/features/compress";
+	public static final String METHOD_ZLIB="zlib";
+
+	/**
+	 *
+	 * @return the supported compression methods
+	 */
+	public List<String> getMethods();
+
+	/**
+	 *
+	 * @return <code>true</code> if the stream is compressed
+	 */
+	public boolean isActive();
+
+	/**
+	 * Start the compression of the stream. The response is written uncompressed, everything received and written
+	 * afterwards is compressed.
+	 *
+	 * @param method the compression method
+	 * @param response the response acknowledging the compression
+	 */
+	public void start(String method,Stanza response);
+}
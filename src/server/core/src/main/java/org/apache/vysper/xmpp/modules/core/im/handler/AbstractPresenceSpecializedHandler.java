@@ -19,6 +19,7 @@
  */
 package org.apache.vysper.xmpp.modules.core.im.handler;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.vysper.xml.fragment.XMLElement;
@@ -59,6 +60,12 @@ public abstract class AbstractPresenceSpecializedHandler {
         }
     }
 
+    protected void relayStanzas(Collection<Entity> receivers, Stanza template, SessionContext sessionContext) {
+        if(!sessionContext.getServerRuntimeContext().multicast(receivers, template)) {
+            logger.warn("presence relaying failed");
+        }
+    }
+
     abstract/*package*/Stanza executeCorePresence(ServerRuntimeContext serverRuntimeContext, boolean isOutboundStanza,
             SessionContext sessionContext, PresenceStanza presenceStanza, RosterManager rosterManager);
 
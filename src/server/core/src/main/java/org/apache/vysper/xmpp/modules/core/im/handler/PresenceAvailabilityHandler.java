@@ -28,6 +28,7 @@ import static org.apache.vysper.xmpp.stanza.PresenceStanzaType.isSubscriptionTyp
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -446,15 +447,10 @@ public class PresenceAvailabilityHandler extends AbstractPresenceSpecializedHand
     }
 
     private void relayTo(Entity from, List<Entity> tos, PresenceStanza original, SessionContext sessionContext) {
-        List<Attribute> toFromReplacements = new ArrayList<Attribute>(2);
-        toFromReplacements.add(new Attribute("from", from.getFullQualifiedName()));
-
-        for (Entity to : tos) {
-            toFromReplacements.add(new Attribute("to", to.getFullQualifiedName()));
-            Stanza outgoingStanza = StanzaBuilder.createClone(original, true, toFromReplacements).build();
-            relayStanza(to, outgoingStanza, sessionContext);
-            toFromReplacements.remove(toFromReplacements.size() - 1); // clear space for new 'to' attribute
-        }
+        // the 'to' attribute is set for each contact by the relay
+        Stanza template = StanzaBuilder.createClone(original, true,
+                Collections.singletonList(new Attribute("from", from.getFullQualifiedName()))).build();
+        relayStanzas(tos, template, sessionContext);
     }
 
 }
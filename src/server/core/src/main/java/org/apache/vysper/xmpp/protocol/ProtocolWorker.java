@@ -20,10 +20,16 @@
 package org.apache.vysper.xmpp.protocol;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.SessionThrottle;
+import org.apache.vysper.xmpp.delivery.inbound.RecipientOrderedExecutor;
+import org.apache.vysper.xmpp.delivery.inbound.RecipientOrderedExecutor.Saturation;
+import org.apache.vysper.xmpp.metrics.MetricsSink;
+import org.apache.vysper.xmpp.metrics.Stage;
+import org.apache.vysper.xmpp.metrics.StanzaKind;
+import org.apache.vysper.xmpp.metrics.TimestampedSessionStateHolder;
 import org.apache.vysper.xmpp.modules.extension.xep0077_inbandreg.InBandRegistrationHandler;
 import org.apache.vysper.xmpp.protocol.exception.TLSException;
 import org.apache.vysper.xmpp.protocol.worker.AuthenticatedProtocolWorker;
@@ -86,6 +92,49 @@ public class ProtocolWorker implements StanzaProcessor {
      */
     public void processStanza(ServerRuntimeContext serverRuntimeContext, SessionContext sessionContext, Stanza stanza,
             SessionStateHolder sessionStateHolder) {
+        MetricsSink metrics = serverRuntimeContext.getMetricsSink();
+        if (!metrics.isEnabled()) {
+            try {
+                processStanzaInternal(serverRuntimeContext, sessionContext, stanza, sessionStateHolder, metrics);
+            } finally {
+                throttle(sessionContext, sessionStateHolder);
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        StanzaKind kind = StanzaKind.of(stanza);
+        String domain = serverRuntimeContext.getServerEnitity().getDomain();
+        if (sessionStateHolder instanceof TimestampedSessionStateHolder) {
+            metrics.record(Stage.PROCESSOR_QUEUE, kind, domain, start
+                    - ((TimestampedSessionStateHolder) sessionStateHolder).getTimestamp());
+        }
+        try {
+            processStanzaInternal(serverRuntimeContext, sessionContext, stanza, sessionStateHolder, metrics);
+        } finally {
+            metrics.record(Stage.PROCESS, kind, domain, System.nanoTime() - start);
+            throttle(sessionContext, sessionStateHolder);
+        }
+    }
+
+    /**
+     * the stanza was relayed on this thread. if it saturated delivery lanes, the sending session is throttled
+     * (if its transport supports this, see SessionThrottle).
+     */
+    private static void throttle(SessionContext sessionContext, SessionStateHolder sessionStateHolder) {
+        Saturation saturation = RecipientOrderedExecutor.takeSaturation();
+        if (saturation == null || sessionContext == null) {
+            return;
+        }
+        if (sessionStateHolder instanceof TimestampedSessionStateHolder) {
+            sessionStateHolder = ((TimestampedSessionStateHolder) sessionStateHolder).getDelegate();
+        }
+        if (sessionStateHolder instanceof SessionThrottle) {
+            ((SessionThrottle) sessionStateHolder).throttle(sessionContext, saturation);
+        }
+    }
+
+    private void processStanzaInternal(ServerRuntimeContext serverRuntimeContext, SessionContext sessionContext,
+            Stanza stanza, SessionStateHolder sessionStateHolder, MetricsSink metrics) {
         if (stanza == null)
             throw new RuntimeException("cannot process NULL stanzas");
         ServerRuntimeContext targetContext=sessionContext==null?serverRuntimeContext:sessionContext.resolveDomainContext(stanza);
@@ -169,9 +218,8 @@ public class ProtocolWorker implements StanzaProcessor {
                 }
                 // make sure that there is a bound resource entry for that from's resource id attribute!
                 if (from != null && from.getResource() != null) {
-                    List<String> boundResources = sessionContext.getServerRuntimeContext().getResourceRegistry()
-                            .getBoundResources(from, false);
-                    if (boundResources.size() == 0) {
+                    // the resource must be bound to this session
+                    if (!sessionContext.getBoundResources().contains(from.getResource())) {
                         responseWriter.handleWrongFromJID(sessionContext, stanza);
                         return;
                     }
@@ -180,17 +228,20 @@ public class ProtocolWorker implements StanzaProcessor {
                 // in the same session.
                 // see rfc3920_draft-saintandre-rfc3920bis-04.txt#8.5.4
                 if (from != null && from.getResource() == null) {
-                    List<String> boundResources = sessionContext.getServerRuntimeContext().getResourceRegistry()
-                            .getResourcesForSession(sessionContext);
-                    if (boundResources.size() > 1) {
+                    if (sessionContext.getBoundResources().size() > 1) {
                         responseWriter.handleWrongFromJID(sessionContext, stanza);
                         return;
                     }
                 }
             }
         }
+        long handlerStart = metrics.isEnabled() ? System.nanoTime() : 0;
         try {
             stateAwareProtocolWorker.processStanza(sessionContext, sessionStateHolder, stanza, stanzaHandler);
+            if (handlerStart != 0) {
+                metrics.record(Stage.HANDLER, StanzaKind.of(stanza), serverRuntimeContext.getServerEnitity()
+                        .getDomain(), System.nanoTime() - handlerStart);
+            }
         } catch (Exception e) {
             logger.error("error executing handler {} with stanza {}", stanzaHandler.getClass().getName(),
                     DenseStanzaLogRenderer.render(stanza));
@@ -55,6 +55,14 @@ public class StanzaHandlerLookup extends AbstractStanzaHandlerLookup {
 
     private static final ServiceUnavailableStanzaErrorHandler SERVICE_UNAVAILABLE_STANZA_ERROR_HANDLER = new ServiceUnavailableStanzaErrorHandler();
 
+    private static final XMLPrologHandler XML_PROLOG_HANDLER = new XMLPrologHandler();
+
+    private static final StreamStartHandler STREAM_START_HANDLER = new StreamStartHandler();
+
+    private static final DbVerifyHandler DB_VERIFY_HANDLER = new DbVerifyHandler();
+
+    private static final DbResultHandler DB_RESULT_HANDLER = new DbResultHandler();
+
     protected ServerRuntimeContext serverRuntimeContext;
 
     public StanzaHandlerLookup(ServerRuntimeContext serverRuntimeContext) {
@@ -80,13 +88,13 @@ public class StanzaHandlerLookup extends AbstractStanzaHandlerLookup {
             String name = stanza.getName();
     
             if ("xml".equals(name)) {
-                return new XMLPrologHandler();
+                return XML_PROLOG_HANDLER;
             } else if ("stream".equals(name)) {
-                return new StreamStartHandler();
+                return STREAM_START_HANDLER;
             } else if ("verify".equals(name)) {
-                return new DbVerifyHandler();
+                return DB_VERIFY_HANDLER;
             } else if ("result".equals(name)) {
-                return new DbResultHandler();
+                return DB_RESULT_HANDLER;
             } else if (iqHandler.verify(stanza)) {
                 return iqHandler;
             } else if (messageHandler.verify(stanza)) {
@@ -32,10 +32,10 @@ import org.apache.vysper.storage.OpenStorageProviderRegistry;
 import org.apache.vysper.storage.StorageProvider;
 import org.apache.vysper.storage.StorageProviderRegistry;
 import org.apache.vysper.xmpp.addressing.Entity;
-import org.apache.vysper.xmpp.addressing.EntityUtils;
 import org.apache.vysper.xmpp.authorization.UserAuthorization;
 import org.apache.vysper.xmpp.cryptography.TLSContextFactory;
 import org.apache.vysper.xmpp.delivery.StanzaRelay;
+import org.apache.vysper.xmpp.metrics.MetricsSink;
 import org.apache.vysper.xmpp.modules.Module;
 import org.apache.vysper.xmpp.modules.ModuleRegistry;
 import org.apache.vysper.xmpp.modules.ServerRuntimeContextService;
@@ -115,6 +115,11 @@ public class DefaultServerRuntimeContext implements ServerRuntimeContext, Module
     private LatestPresenceCache presenceCache = new SimplePresenceCache();
 
     private XMPPServerConnectorRegistry serverConnectorRegistry = new DefaultXMPPServerConnectorRegistry(this);
+
+    /**
+     * receives the stage latencies of the stanza pipeline
+     */
+    private MetricsSink metricsSink = MetricsSink.NONE;
     
     /**
      * holds the storage services
@@ -132,6 +137,12 @@ public class DefaultServerRuntimeContext implements ServerRuntimeContext, Module
      * map of all registered components, index by the subdomain they are registered for
      */
     protected final Map<String, Component> componentMap = new HashMap<String, Component>();
+
+    /**
+     * all registered components, indexed by their domain (subdomain + server domain). addresses below a component
+     * domain are owned by the component.
+     */
+    protected final DomainIndex<Component> componentIndex = new DomainIndex<Component>();
     protected ServerRuntimeContextProvider contextProvider;
 
     public DefaultServerRuntimeContext(Entity serverEntity, ServerRuntimeContextProvider contextProvider, StanzaRelay stanzaRelay, ServerFeatures serverFeatures,
@@ -155,6 +166,19 @@ public class DefaultServerRuntimeContext implements ServerRuntimeContext, Module
         this.presenceCache = presenceCache;
     }
 
+    /**
+     * set the sink receiving the stage latencies of the stanza pipeline.
+     * 
+     * @param metricsSink the sink, null to switch off measuring
+     */
+    public void setMetricsSink(MetricsSink metricsSink) {
+        this.metricsSink = metricsSink == null ? MetricsSink.NONE : metricsSink;
+    }
+
+    public MetricsSink getMetricsSink() {
+        return metricsSink;
+    }
+
     public StanzaHandler getHandler(Stanza stanza) {
         StanzaHandler handler= stanzaHandlerLookup.getHandler(stanza);
         return handler;
@@ -343,16 +367,12 @@ public class DefaultServerRuntimeContext implements ServerRuntimeContext, Module
     public void registerComponent(Component component) {
     	contextProvider.add(component.getComponentContext());
         componentMap.put(component.getSubdomain(), component);
+        componentIndex.put(component.getSubdomain() + "." + getServerEnitity().getDomain(), component);
     }
 
     public StanzaProcessor getComponentStanzaProcessor(Entity entity) {
-        String serverDomain = getServerEnitity().getDomain();
-        if (!EntityUtils.isAddressingServerComponent(entity, getServerEnitity())) {
-            return null;
-        }
-        String domain = entity.getDomain();
-        String subdomain = domain.replace("." + serverDomain, "");
-        Component component = componentMap.get(subdomain);
+        // the index contains component domains only, the server domain itself never matches
+        Component component = componentIndex.findOwner(entity.getDomain());
         if (component == null)
             return null;
         return component.getStanzaProcessor();
@@ -0,0 +1,184 @@
+package org.apache.vysper.xmpp.server;
+
+/**
+ * An index of domains organized as a trie of reversed labels (<code>conference.tenant1.example.com</code> is stored
+ * as <code>com</code> &rarr; <code>example</code> &rarr; <code>tenant1</code> &rarr; <code>conference</code>). Besides
+ * the exact lookup, the index finds the owner of a domain, that is the value of the domain itself or of its nearest
+ * registered parent domain, in O(labels). A trailing dot is ignored.
+ * <br>Lookups are lock free and don't allocate: labels are hashed and compared in place. Modifications are rare
+ * (registration of domains and components) and synchronized. The child tables are copied on write.
+ *
+ * @author notalexa
+ *
+ * @param <T> the type of the values
+ */
+public class DomainIndex<T> {
+	private final Node<T> root=new Node<T>(null,0,null);
+
+	/**
+	 * Register a value for a domain.
+	 *
+	 * @param domain the domain
+	 * @param value the value (or <code>null</code> to remove the value)
+	 * @return the previous value of the domain
+	 */
+	public synchronized T put(String domain,T value) {
+		Node<T> node=root;
+		int end=length(domain);
+		while(true) {
+			int start=domain.lastIndexOf('.',end-1)+1;
+			int hash=hash(domain,start,end);
+			Node<T> child=node.child(domain,start,end,hash);
+			if(child==null) {
+				if(value==null) {
+					return null;
+				}
+				child=node.addChild(domain.substring(start,end),hash);
+			}
+			node=child;
+			if(start==0) {
+				break;
+			}
+			end=start-1;
+		}
+		T previous=node.value;
+		node.value=value;
+		return previous;
+	}
+
+	public T remove(String domain) {
+		return put(domain,null);
+	}
+
+	/**
+	 *
+	 * @param domain the domain
+	 * @return the value registered for exactly this domain
+	 */
+	public T get(String domain) {
+		Node<T> node=root;
+		int end=length(domain);
+		while(true) {
+			int start=domain.lastIndexOf('.',end-1)+1;
+			node=node.child(domain,start,end,hash(domain,start,end));
+			if(node==null) {
+				return null;
+			}
+			if(start==0) {
+				return node.value;
+			}
+			end=start-1;
+		}
+	}
+
+	/**
+	 *
+	 * @param domain the domain
+	 * @return the value registered for the domain or (if none) for the nearest parent domain. <code>null</code> if neither
+	 * the domain nor a parent domain is registered.
+	 */
+	public T findOwner(String domain) {
+		T owner=null;
+		Node<T> node=root;
+		int end=length(domain);
+		while(true) {
+			int start=domain.lastIndexOf('.',end-1)+1;
+			node=node.child(domain,start,end,hash(domain,start,end));
+			if(node==null) {
+				return owner;
+			}
+			T value=node.value;
+			if(value!=null) {
+				owner=value;
+			}
+			if(start==0) {
+				return owner;
+			}
+			end=start-1;
+		}
+	}
+
+	/**
+	 * The length of the domain without the trailing dot of an absolute domain (<code>example.com.</code> is
+	 * <code>example.com</code>).
+	 */
+	private static int length(String domain) {
+		int length=domain.length();
+		return length>0&&domain.charAt(length-1)=='.'?length-1:length;
+	}
+
+	/**
+	 * The hash of the label, equal to <code>domain.substring(start,end).hashCode()</code>.
+	 */
+	private static int hash(String domain,int start,int end) {
+		int hash=0;
+		for(int i=start;i<end;i++) {
+			hash=31*hash+domain.charAt(i);
+		}
+		return hash;
+	}
+
+	private static class Node<T> {
+		private final String label;
+		private final int hash;
+		// next node in the same bucket of the parent
+		private final Node<T> next;
+		private volatile T value;
+		@SuppressWarnings("unchecked")
+		private volatile Node<T>[] children=new Node[0];
+		private int childCount;
+
+		private Node(String label,int hash,Node<T> next) {
+			this.label=label;
+			this.hash=hash;
+			this.next=next;
+		}
+
+		private Node<T> child(String domain,int start,int end,int hash) {
+			Node<T>[] table=children;
+			if(table.length==0) {
+				return null;
+			}
+			for(Node<T> node=table[hash&(table.length-1)];node!=null;node=node.next) {
+				if(node.hash==hash&&node.label.length()==end-start&&domain.regionMatches(start,node.label,0,end-start)) {
+					return node;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Called with the lock of the index held.
+		 */
+		@SuppressWarnings("unchecked")
+		private Node<T> addChild(String label,int hash) {
+			Node<T>[] table=children;
+			int size=table.length;
+			if(childCount+1>size*3/4) {
+				size=Math.max(4,size*2);
+			}
+			Node<T>[] copy=new Node[size];
+			for(Node<T> bucket:table) {
+				for(Node<T> node=bucket;node!=null;node=node.next) {
+					copy[node.hash&(size-1)]=node.relink(copy[node.hash&(size-1)]);
+				}
+			}
+			Node<T> child=new Node<T>(label,hash,copy[hash&(size-1)]);
+			copy[hash&(size-1)]=child;
+			childCount++;
+			children=copy;
+			return child;
+		}
+
+		/**
+		 * Chains are immutable. Moving a node into a new table creates a new node sharing value and children.
+		 */
+		private Node<T> relink(Node<T> next) {
+			Node<T> node=new Node<T>(label,hash,next);
+			node.value=value;
+			node.children=children;
+			node.childCount=childCount;
+			return node;
+		}
+	}
+}
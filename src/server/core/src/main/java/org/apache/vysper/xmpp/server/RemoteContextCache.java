@@ -0,0 +1,174 @@
+package org.apache.vysper.xmpp.server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A bounded cache for the contexts of remote (unknown) domains. Every domain showing up in a <code>to</code> attribute
+ * which isn't served by this server yields a remote context. Clients can address arbitrary domains, therefore the cache
+ * evicts contexts if it is full and replaces contexts not used for a given time.
+ * <br>Lookups don't lock. The eviction is approximately LRU: the cache is swept by a cursor and the least recently used
+ * of a few contexts under the cursor is evicted (expired contexts under the cursor are evicted, too). One thread evicts
+ * at a time, others don't wait for it, that is the cache may exceed its size by the number of concurrently missing
+ * threads for a short time.
+ * <br>Hits, misses and evictions are counted to size the cache.
+ *
+ * @author notalexa
+ *
+ */
+public class RemoteContextCache {
+	public static final int DEFAULT_MAX_SIZE=1024;
+	public static final long DEFAULT_TTL=TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * The number of contexts looked at for one eviction.
+	 */
+	private static final int SAMPLE_SIZE=8;
+
+	private final int maxSize;
+	private final long ttlNanos;
+	/**
+	 * The access time of a context is updated at most once per interval, a hot context isn't written on every hit.
+	 */
+	private final long accessIntervalNanos;
+	private final Map<String,Entry> contexts=new ConcurrentHashMap<String,Entry>();
+	private final AtomicLong hits=new AtomicLong();
+	private final AtomicLong misses=new AtomicLong();
+	private final AtomicLong evictions=new AtomicLong();
+	private final ReentrantLock evictionLock=new ReentrantLock();
+	// guarded by the eviction lock
+	private Iterator<Map.Entry<String,Entry>> cursor;
+
+	public RemoteContextCache() {
+		this(DEFAULT_MAX_SIZE,DEFAULT_TTL);
+	}
+
+	/**
+	 *
+	 * @param maxSize the maximum number of cached contexts
+	 * @param ttl the time (in milliseconds) an unused context stays in the cache
+	 */
+	public RemoteContextCache(int maxSize,long ttl) {
+		if(maxSize<1) {
+			throw new IllegalArgumentException("cache size must be positive: "+maxSize);
+		}
+		this.maxSize=maxSize;
+		this.ttlNanos=TimeUnit.MILLISECONDS.toNanos(ttl);
+		this.accessIntervalNanos=ttlNanos/16;
+	}
+
+	/**
+	 * Lookup the context of the domain. If the context is not cached (or expired), a new one is created.
+	 *
+	 * @param domain the remote domain
+	 * @param factory creates the context for the domain
+	 * @return the context of the domain
+	 */
+	public ServerRuntimeContext resolve(String domain,Function<String,ServerRuntimeContext> factory) {
+		long now=System.nanoTime();
+		Entry entry=contexts.get(domain);
+		if(entry!=null) {
+			long idle=now-entry.lastAccess;
+			if(idle<ttlNanos) {
+				hits.incrementAndGet();
+				if(idle>accessIntervalNanos) {
+					entry.lastAccess=now;
+				}
+				return entry.context;
+			}
+			remove(domain,entry);
+		}
+		misses.incrementAndGet();
+		Entry created=new Entry(factory.apply(domain),now);
+		entry=contexts.putIfAbsent(domain,created);
+		if(entry!=null) {
+			// created concurrently
+			entry.lastAccess=now;
+			return entry.context;
+		}
+		if(contexts.size()>maxSize) {
+			evict(now);
+		}
+		return created.context;
+	}
+
+	private void evict(long now) {
+		if(!evictionLock.tryLock()) {
+			// another thread evicts
+			return;
+		}
+		try {
+			while(contexts.size()>maxSize) {
+				Map.Entry<String,Entry> victim=null;
+				for(int i=0;i<SAMPLE_SIZE;i++) {
+					if(cursor==null||!cursor.hasNext()) {
+						cursor=contexts.entrySet().iterator();
+						if(!cursor.hasNext()) {
+							break;
+						}
+					}
+					Map.Entry<String,Entry> candidate=cursor.next();
+					if(now-candidate.getValue().lastAccess>=ttlNanos) {
+						remove(candidate.getKey(),candidate.getValue());
+					} else if(victim==null||candidate.getValue().lastAccess<victim.getValue().lastAccess) {
+						victim=candidate;
+					}
+				}
+				if(victim!=null) {
+					remove(victim.getKey(),victim.getValue());
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void remove(String domain,Entry entry) {
+		// the entry may have been replaced concurrently
+		if(contexts.remove(domain,entry)) {
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Remove all contexts (for example if a domain is added to the server).
+	 */
+	public void clear() {
+		contexts.clear();
+	}
+
+	public int size() {
+		return contexts.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	private static class Entry {
+		private final ServerRuntimeContext context;
+		private volatile long lastAccess;
+
+		private Entry(ServerRuntimeContext context,long lastAccess) {
+			this.context=context;
+			this.lastAccess=lastAccess;
+		}
+	}
+}
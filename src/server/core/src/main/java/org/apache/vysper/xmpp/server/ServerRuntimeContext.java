@@ -20,7 +20,12 @@
 
 package org.apache.vysper.xmpp.server;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
 
 import javax.net.ssl.SSLContext;
 
@@ -30,9 +35,13 @@ import org.apache.vysper.storage.StorageProvider;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
 import org.apache.vysper.xmpp.authorization.UserAuthorization;
+import org.apache.vysper.xmpp.delivery.AsyncStanzaRelay;
+import org.apache.vysper.xmpp.delivery.MulticastStanzaRelay;
 import org.apache.vysper.xmpp.delivery.StanzaRelay;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.delivery.inbound.RelayResult;
+import org.apache.vysper.xmpp.metrics.MetricsSink;
 import org.apache.vysper.xmpp.modules.Module;
 import org.apache.vysper.xmpp.modules.ServerRuntimeContextService;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
@@ -114,6 +123,14 @@ public interface ServerRuntimeContext {
     default boolean isXmppDomain() {
     	return true;
     }
+    
+    /**
+     * 
+     * @return the sink receiving the stage latencies of the stanza pipeline (by default, nothing is measured)
+     */
+    default MetricsSink getMetricsSink() {
+    	return MetricsSink.NONE;
+    }
 
 	default Entity getFrom(SessionContext sessionContext, Stanza stanza,boolean includeResource) {
 		Entity from=stanza.getFrom();
@@ -154,6 +171,72 @@ public interface ServerRuntimeContext {
 		}
 	}
 	
+	/**
+	 * Asynchronous relay handling using an failure ignore strategy.
+	 * 
+	 * @param stanza the stanza to relay
+	 * @return a stage completing with the result of the delivery
+	 */
+	default CompletionStage<RelayResult> relayAsync(Stanza stanza) {
+		return relayAsync(stanza,DeliveryFailureStrategy.IGNORE);
+	}
+	
+	/**
+	 * Relay the stanza and report the outcome. If the relay of the domain context doesn't support
+	 * asynchronous relaying, the stage is completed as soon as the relay accepted the stanza.
+	 * 
+	 * @param stanza the stanza to relay
+	 * @param failureStrategy the failure strategy
+	 * @return a stage completing with the result of the delivery. Failures are reported as processing errors
+	 * of the result.
+	 * @see AsyncStanzaRelay
+	 */
+	default CompletionStage<RelayResult> relayAsync(Stanza stanza,DeliveryFailureStrategy failureStrategy) {
+		return AsyncStanzaRelay.relayAsync(resolveDomainContext(stanza.getTo()).getStanzaRelay(),stanza.getTo(),stanza,failureStrategy);
+	}
+	
+	/**
+	 * Multicast handling using an failure ignore strategy.
+	 * 
+	 * @param receivers the receivers of the stanza
+	 * @param template the stanza to relay
+	 * @return <code>true<code>if relaying was successful for all receivers (with respect to the failure strategy)
+	 */
+	default boolean multicast(Collection<Entity> receivers,Stanza template) {
+		return multicast(receivers,template,DeliveryFailureStrategy.IGNORE);
+	}
+	
+	/**
+	 * Relay one stanza to many receivers. Receivers are grouped by the relay of their domain context
+	 * and every relay is called once. The <code>to</code> attribute of the template is replaced for
+	 * every receiver.
+	 * 
+	 * @param receivers the receivers of the stanza
+	 * @param template the stanza to relay
+	 * @param failureStrategy the failure strategy
+	 * @return <code>true<code>if relaying was successful for all receivers (with respect to the failure strategy)
+	 * @see MulticastStanzaRelay
+	 */
+	default boolean multicast(Collection<Entity> receivers,Stanza template,DeliveryFailureStrategy failureStrategy) {
+		Map<StanzaRelay,List<Entity>> relays=new LinkedHashMap<StanzaRelay,List<Entity>>();
+		for(Entity receiver:receivers) {
+			relays.computeIfAbsent(resolveDomainContext(receiver).getStanzaRelay(),relay->new ArrayList<Entity>()).add(receiver);
+		}
+		boolean relayed=true;
+		for(Map.Entry<StanzaRelay,List<Entity>> entry:relays.entrySet()) {
+			try {
+				if(entry.getKey() instanceof MulticastStanzaRelay) {
+					((MulticastStanzaRelay)entry.getKey()).multicast(entry.getValue(),template,failureStrategy);
+				} else {
+					MulticastStanzaRelay.relayEach(entry.getKey(),entry.getValue(),template,failureStrategy);
+				}
+			} catch(DeliveryException e) {
+				relayed=false;
+			}
+		}
+		return relayed;
+	}
+	
 	public class ComponentContext extends ServerRuntimeContextAdapter {
 		protected Entity componentEntity;
 		public ComponentContext(Entity componentJID,ServerRuntimeContext serverContext) {
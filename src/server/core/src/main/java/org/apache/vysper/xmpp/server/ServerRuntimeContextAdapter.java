@@ -1,6 +1,8 @@
 package org.apache.vysper.xmpp.server;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 
 import javax.net.ssl.SSLContext;
 
@@ -9,6 +11,8 @@ import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.authorization.UserAuthorization;
 import org.apache.vysper.xmpp.delivery.StanzaRelay;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.delivery.inbound.RelayResult;
+import org.apache.vysper.xmpp.metrics.MetricsSink;
 import org.apache.vysper.xmpp.modules.Module;
 import org.apache.vysper.xmpp.modules.ServerRuntimeContextService;
 import org.apache.vysper.xmpp.protocol.StanzaHandler;
@@ -125,6 +129,11 @@ public class ServerRuntimeContextAdapter implements ServerRuntimeContext {
 		return delegate.isXmppDomain();
 	}
 	
+	@Override
+	public MetricsSink getMetricsSink() {
+		return delegate.getMetricsSink();
+	}
+
 	@Override
 	public ServerRuntimeContext resolveDomainContext(Entity entity) {
 		return delegate.resolveDomainContext(entity);
@@ -144,4 +153,14 @@ public class ServerRuntimeContextAdapter implements ServerRuntimeContext {
 	public boolean relay(Stanza stanza, DeliveryFailureStrategy failureStrategy) {
 		return delegate.relay(stanza, failureStrategy);
 	}
+
+	@Override
+	public CompletionStage<RelayResult> relayAsync(Stanza stanza, DeliveryFailureStrategy failureStrategy) {
+		return delegate.relayAsync(stanza, failureStrategy);
+	}
+
+	@Override
+	public boolean multicast(Collection<Entity> receivers, Stanza template, DeliveryFailureStrategy failureStrategy) {
+		return delegate.multicast(receivers, template, failureStrategy);
+	}
 }
@@ -1,7 +1,7 @@
 package org.apache.vysper.xmpp.server;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
@@ -9,15 +9,20 @@ import org.apache.vysper.xmpp.modules.Module;
 
 /**
  * Provides context for a given domain. If the context is not known, a {@link RemoteServerRuntimeContext} is created for this domain.
+ * <br>Resolution is called for every stanza and is lock free for the domains (and subdomains) served by this server. Contexts
+ * of remote domains are kept in a bounded {@link RemoteContextCache}, separate from the (permanent) table of served domains.
  * 
  * @author notalexa
  */
 public class ServerRuntimeContextProvider {
 	// The first registered context is used for remote runtime contexts.
-	private ServerRuntimeContext relayContext;
+	private volatile ServerRuntimeContext relayContext;
 	
-	protected Map<String,ServerRuntimeContext> defined=new HashMap<>();
-	protected Map<String,ServerRuntimeContext> resolved=new HashMap<>();
+	protected Map<String,ServerRuntimeContext> defined=new ConcurrentHashMap<>();
+	protected Map<String,ServerRuntimeContext> resolved=new ConcurrentHashMap<>();
+	// resolves subdomains (of any depth) to the context of the nearest defined domain
+	protected DomainIndex<ServerRuntimeContext> domains=new DomainIndex<>();
+	private volatile RemoteContextCache remoteContexts=new RemoteContextCache();
 	
 	public ServerRuntimeContextProvider() {
 	}
@@ -28,14 +33,31 @@ public class ServerRuntimeContextProvider {
 		}
 	}
 	
-	public ServerRuntimeContextProvider add(ServerRuntimeContext context) {
+	public synchronized ServerRuntimeContextProvider add(ServerRuntimeContext context) {
 		if(relayContext==null) {
 			relayContext=context;
 		}
 		defined.put(context.getServerEnitity().getDomain(),context);
 		resolved.put(context.getServerEnitity().getDomain(),context);
+		domains.put(context.getServerEnitity().getDomain(),context);
+		// the domain (or a subdomain) may have been resolved as remote
+		remoteContexts.clear();
 		return this;
 	}
+
+	/**
+	 * 
+	 * @param remoteContexts the cache for the contexts of remote domains
+	 * @return this provider
+	 */
+	public ServerRuntimeContextProvider setRemoteContextCache(RemoteContextCache remoteContexts) {
+		this.remoteContexts=remoteContexts;
+		return this;
+	}
+
+	public RemoteContextCache getRemoteContextCache() {
+		return remoteContexts;
+	}
 	
 	public <T extends Module> T getModule(String componentName,Class<T> clazz) {
 		for(Map.Entry<String,ServerRuntimeContext> context:defined.entrySet()) {
@@ -55,7 +77,7 @@ public class ServerRuntimeContextProvider {
 	 * @param entity the domain
 	 * @return a context for the domain of the entity (never <code>null<code>)
 	 */
-	public synchronized ServerRuntimeContext resolveDomainContext(Entity entity) {
+	public ServerRuntimeContext resolveDomainContext(Entity entity) {
 		return resolveDomainContext(entity.getDomain());
 	}
 	
@@ -65,27 +87,17 @@ public class ServerRuntimeContextProvider {
 	 * @param domain the domain
 	 * @return a context for the domain (never <code>null<code>)
 	 */
-	public synchronized ServerRuntimeContext resolveDomainContext(String domain) {
+	public ServerRuntimeContext resolveDomainContext(String domain) {
 		ServerRuntimeContext context=resolved.get(domain);
 		if(context!=null) {
 			return context;
 		}
-		context=defined.get(domain);
+		// Subdomains are not cached, otherwise arbitrary subdomains would grow the table without bound.
+		context=domains.findOwner(domain);
 		if(context!=null) {
-			resolved.put(domain,context);
 			return context;
 		}
-		int p=domain.indexOf('.');
-		if(p>0) {
-			context=defined.get(domain.substring(p+1));
-			if(context!=null) {
-				resolved.put(domain,context);
-				return context;
-			}
-		}
 		// Not found. We should handle remote context later.
-		context=new RemoteServerRuntimeContext(relayContext,new EntityImpl(null,domain,null));
-		resolved.put(domain,context);
-		return context;
+		return remoteContexts.resolve(domain,remoteDomain->new RemoteServerRuntimeContext(relayContext,new EntityImpl(null,remoteDomain,null)));
 	}
 }
@@ -20,6 +20,9 @@
 
 package org.apache.vysper.xmpp.server;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
 import org.apache.vysper.xmpp.server.response.ServerErrorResponses;
@@ -196,6 +199,19 @@ public interface SessionContext {
      * @see org.apache.vysper.xmpp.server.SessionContext#putAttribute(String, Object)
      */
     Object getAttribute(String key);
+
+    /**
+     * the resources bound to this session. the resource registry keeps an immutable list per session in a concurrent
+     * map and replaces it on bind and unbind, so the list is safely published to whichever thread asks. (the session
+     * attributes are not thread-safe and must not be used for this.)
+     * @return the immutable list of resources bound to this session
+     */
+    default List<String> getBoundResources() {
+        ServerRuntimeContext serverRuntimeContext = getServerRuntimeContext();
+        List<String> resources = serverRuntimeContext == null ? null
+                : serverRuntimeContext.getResourceRegistry().getResourcesForSession(this);
+        return resources == null ? Collections.<String>emptyList() : resources;
+    }
     
     default ServerRuntimeContext resolveDomainContext(Stanza stanza) {
     	Entity to=stanza.getTo();
@@ -37,6 +37,7 @@ import org.apache.vysper.xmpp.delivery.OfflineStanzaReceiver;
 import org.apache.vysper.xmpp.delivery.StanzaRelayBroker;
 import org.apache.vysper.xmpp.delivery.inbound.DeliveringExternalInboundStanzaRelay;
 import org.apache.vysper.xmpp.delivery.inbound.DeliveringInternalInboundStanzaRelay;
+import org.apache.vysper.xmpp.delivery.inbound.RecipientOrderedExecutor;
 import org.apache.vysper.xmpp.modules.Module;
 import org.apache.vysper.xmpp.modules.extension.xep0160_offline_storage.OfflineStorageProvider;
 import org.apache.vysper.xmpp.modules.roster.RosterModule;
@@ -74,6 +75,15 @@ public class XMPPServer {
 
     private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
     
+    /**
+     * executor of the internal relay
+     */
+    private RecipientOrderedExecutor relayExecutor;
+
+    /**
+     * delivers through an executor of its own, a remote delivery may block on connecting to the remote server
+     */
+    private DeliveringExternalInboundStanzaRelay externalStanzaRelay;
 
     public XMPPServer(String domain) {
         this.serverDomain = domain;
@@ -121,9 +131,10 @@ public class XMPPServer {
         AccountManagement accountManagement = (AccountManagement) storageProviderRegistry
                 .retrieve(AccountManagement.class);
         OfflineStanzaReceiver offlineReceiver = (OfflineStanzaReceiver) storageProviderRegistry.retrieve(OfflineStorageProvider.class);
+        relayExecutor = new RecipientOrderedExecutor();
         DeliveringInternalInboundStanzaRelay internalStanzaRelay = new DeliveringInternalInboundStanzaRelay(serverEntity,
-                resourceRegistry, accountManagement,offlineReceiver);
-        DeliveringExternalInboundStanzaRelay externalStanzaRelay = new DeliveringExternalInboundStanzaRelay();
+                resourceRegistry, accountManagement,offlineReceiver,relayExecutor);
+        externalStanzaRelay = new DeliveringExternalInboundStanzaRelay();
 
         StanzaRelayBroker stanzaRelayBroker = new StanzaRelayBroker();
         stanzaRelayBroker.setInternalRelay(internalStanzaRelay);
@@ -160,6 +171,8 @@ public class XMPPServer {
         }
         
         serverRuntimeContext.getServerConnectorRegistry().close();
+        relayExecutor.shutdown();
+        externalStanzaRelay.shutdown();
     }
 
     public void addModule(Module module) {
@@ -169,6 +182,7 @@ public class XMPPServer {
     private void addCoreDictionaries(List<HandlerDictionary> dictionaries) {
         dictionaries.add(new org.apache.vysper.xmpp.modules.core.base.BaseStreamStanzaDictionary());
         dictionaries.add(new org.apache.vysper.xmpp.modules.core.starttls.StartTLSStanzaDictionary());
+        dictionaries.add(new org.apache.vysper.xmpp.modules.core.compression.CompressionStanzaDictionary());
         dictionaries.add(new org.apache.vysper.xmpp.modules.core.sasl.SASLStanzaDictionary());
         dictionaries.add(new org.apache.vysper.xmpp.modules.core.bind.BindResourceDictionary());
         dictionaries.add(new org.apache.vysper.xmpp.modules.core.session.SessionStanzaDictionary());
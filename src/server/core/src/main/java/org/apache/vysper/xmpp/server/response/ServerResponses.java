@@ -26,6 +26,7 @@ import org.apache.vysper.xml.fragment.XMLElement;
 import org.apache.vysper.xml.fragment.XMLElementBuilder;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.authorization.SASLMechanism;
+import org.apache.vysper.xmpp.modules.core.compression.StreamCompression;
 import org.apache.vysper.xmpp.modules.extension.xep0077_inbandreg.InBandRegistrationModule;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
 import org.apache.vysper.xmpp.server.SessionContext;
@@ -53,7 +54,7 @@ public class ServerResponses {
                     .getServerFeatures().getAuthenticationMethods());
         else if (sessionContext.getState() == SessionState.AUTHENTICATED) {
             sessionContext.setIsReopeningXMLStream();
-            innerFeatureStanza = getFeaturesForSession();
+            innerFeatureStanza = getFeaturesForSession(sessionContext);
         } else {
             throw new IllegalStateException("unsupported state for responding with stream opener");
         }
@@ -158,8 +159,28 @@ public class ServerResponses {
     }
 
     public Stanza getFeaturesForSession() {
+        return getFeaturesForSession(null);
+    }
+
+    /**
+     * @param sessionContext the session (or null). if the transport of the session supports compression (and the stream
+     * isn't compressed yet), compression is offered.
+     */
+    public Stanza getFeaturesForSession(SessionContext sessionContext) {
         StanzaBuilder stanzaBuilder = startFeatureStanza();
 
+        StreamCompression compression = sessionContext == null ? null : (StreamCompression) sessionContext
+                .getAttribute(StreamCompression.SESSION_ATTRIBUTE);
+        if (compression != null && !compression.isActive()) {
+            // XEP-0138: offered after authentication and before resource binding
+            stanzaBuilder.startInnerElement("compression", StreamCompression.FEATURE_NAMESPACE_URI);
+            for (String method : compression.getMethods()) {
+                stanzaBuilder.startInnerElement("method", StreamCompression.FEATURE_NAMESPACE_URI).addText(method)
+                        .endInnerElement();
+            }
+            stanzaBuilder.endInnerElement();
+        }
+
         stanzaBuilder.startInnerElement("bind", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_BIND).startInnerElement(
                 "required", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_BIND).endInnerElement();
         stanzaBuilder.endInnerElement();
@@ -0,0 +1,267 @@
+package org.apache.vysper.xmpp.stanza;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLFragment;
+import org.apache.vysper.xml.fragment.XMLText;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+
+/**
+ * Encodes XML elements as UTF-8 directly into an {@link IoBuffer}. Unlike the {@link Renderer}, no intermediate strings
+ * are built: names, values and texts are escaped and encoded in place. The buffer is allocated by the caller, that is the
+ * buffers come from the allocator configured for MINA (which may be a pooling allocator handing out direct buffers).
+ * <br>An element declares its namespace if the namespace differs from the namespace in scope for its prefix (as the
+ * {@link Renderer} does). Elements with explicitly declared namespaces and attributes in namespaces other than the XML
+ * namespace are rare in stanzas. They are rendered by the {@link Renderer}.
+ *
+ * @author notalexa
+ *
+ */
+public class StanzaEncoder {
+	private static final int CHUNK=1024;
+	// the maximum number of bytes a char is encoded to (&quot;)
+	private static final int MAX_BYTES_PER_CHAR=6;
+
+	private static final byte[] AMP=bytes("&amp;");
+	private static final byte[] LT=bytes("&lt;");
+	private static final byte[] GT=bytes("&gt;");
+	private static final byte[] QUOT=bytes("&quot;");
+	private static final byte[] APOS=bytes("&apos;");
+	private static final byte[] XMLNS=bytes(" xmlns");
+
+	private static final Scope ROOT=new Scope("xml",NamespaceURIs.XML,new Scope("","",null));
+	private static final Unsupported UNSUPPORTED=new Unsupported();
+
+	private StanzaEncoder() {
+	}
+
+	/**
+	 * Encode the element.
+	 *
+	 * @param element the element
+	 * @param buffer the buffer. The buffer is expanded if needed.
+	 */
+	public static void encode(XMLElement element,IoBuffer buffer) {
+		int start=buffer.position();
+		try {
+			write(element,buffer,ROOT);
+		} catch(Unsupported e) {
+			buffer.position(start);
+			write(new Renderer(element).getComplete(),buffer,false,false);
+		}
+	}
+
+	/**
+	 * Encode the opening tag of the element (without the inner fragments).
+	 *
+	 * @param element the element
+	 * @param buffer the buffer
+	 * @return <code>true</code> if the tag was encoded, <code>false</code> if the element must be encoded by the {@link Renderer}
+	 * (the buffer is left untouched in this case)
+	 */
+	public static boolean encodeOpening(XMLElement element,IoBuffer buffer) {
+		int start=buffer.position();
+		try {
+			writeOpening(element,buffer,ROOT);
+			buffer.expand(1).put((byte)'>');
+			return true;
+		} catch(Unsupported e) {
+			buffer.position(start);
+			return false;
+		}
+	}
+
+	/**
+	 * Encode the closing tag of the element.
+	 *
+	 * @param element the element
+	 * @param buffer the buffer
+	 */
+	public static void encodeClosing(XMLElement element,IoBuffer buffer) {
+		buffer.expand(2).put((byte)'<').put((byte)'/');
+		writeQualifiedName(element,buffer);
+		buffer.expand(1).put((byte)'>');
+	}
+
+	/**
+	 * Encode an attribute value (escaped for use in single or double quotes).
+	 *
+	 * @param value the value
+	 * @param buffer the buffer
+	 */
+	public static void encodeAttributeValue(String value,IoBuffer buffer) {
+		write(value,buffer,true,true);
+	}
+
+	private static void write(XMLElement element,IoBuffer buffer,Scope scope) {
+		scope=writeOpening(element,buffer,scope);
+		List<XMLFragment> fragments=element.getInnerFragments();
+		if(fragments==null||fragments.isEmpty()) {
+			buffer.expand(2).put((byte)'/').put((byte)'>');
+			return;
+		}
+		buffer.expand(1).put((byte)'>');
+		for(XMLFragment fragment:fragments) {
+			if(fragment instanceof XMLElement) {
+				write((XMLElement)fragment,buffer,scope);
+			} else if(fragment instanceof XMLText) {
+				write(((XMLText)fragment).getText(),buffer,true,false);
+			} else {
+				throw UNSUPPORTED;
+			}
+		}
+		encodeClosing(element,buffer);
+	}
+
+	/**
+	 * Write the opening tag without the closing <code>&gt;</code>.
+	 *
+	 * @return the scope of the inner fragments
+	 */
+	private static Scope writeOpening(XMLElement element,IoBuffer buffer,Scope scope) {
+		Map<String,String> declared=element.getDeclaredNamespaces();
+		if(declared!=null&&!declared.isEmpty()) {
+			throw UNSUPPORTED;
+		}
+		String prefix=nullToEmpty(element.getNamespacePrefix());
+		String namespace=nullToEmpty(element.getNamespaceURI());
+		buffer.expand(1).put((byte)'<');
+		writeQualifiedName(element,buffer);
+		if(!namespace.equals(scope.resolve(prefix))) {
+			scope=new Scope(prefix,namespace,scope);
+			buffer.expand(XMLNS.length).put(XMLNS);
+			if(prefix.length()>0) {
+				buffer.expand(1).put((byte)':');
+				write(prefix,buffer,false,false);
+			}
+			writeAttributeValue(namespace,buffer);
+		}
+		for(Attribute attribute:element.getAttributes()) {
+			String attributeNamespace=nullToEmpty(attribute.getNamespaceUri());
+			buffer.expand(1).put((byte)' ');
+			if(attributeNamespace.length()>0) {
+				if(!NamespaceURIs.XML.equals(attributeNamespace)) {
+					throw UNSUPPORTED;
+				}
+				buffer.expand(4).put((byte)'x').put((byte)'m').put((byte)'l').put((byte)':');
+			}
+			write(attribute.getName(),buffer,false,false);
+			writeAttributeValue(attribute.getValue(),buffer);
+		}
+		return scope;
+	}
+
+	private static void writeQualifiedName(XMLElement element,IoBuffer buffer) {
+		String prefix=element.getNamespacePrefix();
+		if(prefix!=null&&prefix.length()>0) {
+			write(prefix,buffer,false,false);
+			buffer.expand(1).put((byte)':');
+		}
+		write(element.getName(),buffer,false,false);
+	}
+
+	private static void writeAttributeValue(String value,IoBuffer buffer) {
+		buffer.expand(2).put((byte)'=').put((byte)'"');
+		write(value,buffer,true,true);
+		buffer.expand(1).put((byte)'"');
+	}
+
+	/**
+	 * Encode the string as UTF-8. The buffer is expanded chunk by chunk and the chars are written to the underlying
+	 * byte buffer.
+	 *
+	 * @param escape if <code>&amp;</code>, <code>&lt;</code> and <code>&gt;</code> should be escaped
+	 * @param attribute if quotes should be escaped, too
+	 */
+	private static void write(String s,IoBuffer buffer,boolean escape,boolean attribute) {
+		int length=s.length();
+		int i=0;
+		while(i<length) {
+			int end=Math.min(length,i+CHUNK);
+			// one more char for a surrogate pair crossing the end of the chunk
+			buffer.expand(MAX_BYTES_PER_CHAR*(end-i+1));
+			ByteBuffer out=buffer.buf();
+			for(;i<end;i++) {
+				char c=s.charAt(i);
+				if(c<0x80) {
+					if(escape) {
+						switch(c) {
+						case '&':out.put(AMP);continue;
+						case '<':out.put(LT);continue;
+						case '>':out.put(GT);continue;
+						case '"':if(attribute) {out.put(QUOT);continue;} break;
+						case '\'':if(attribute) {out.put(APOS);continue;} break;
+						}
+					}
+					out.put((byte)c);
+				} else if(c<0x800) {
+					out.put((byte)(0xc0|(c>>6)));
+					out.put((byte)(0x80|(c&0x3f)));
+				} else if(Character.isHighSurrogate(c)&&i+1<length&&Character.isLowSurrogate(s.charAt(i+1))) {
+					int codePoint=Character.toCodePoint(c,s.charAt(++i));
+					out.put((byte)(0xf0|(codePoint>>18)));
+					out.put((byte)(0x80|((codePoint>>12)&0x3f)));
+					out.put((byte)(0x80|((codePoint>>6)&0x3f)));
+					out.put((byte)(0x80|(codePoint&0x3f)));
+				} else if(Character.isSurrogate(c)) {
+					// unpaired surrogate, not encodable
+					out.put((byte)'?');
+				} else {
+					out.put((byte)(0xe0|(c>>12)));
+					out.put((byte)(0x80|((c>>6)&0x3f)));
+					out.put((byte)(0x80|(c&0x3f)));
+				}
+			}
+		}
+	}
+
+	private static String nullToEmpty(String s) {
+		return s==null?"":s;
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The namespaces in scope, one node per declaration.
+	 */
+	private static class Scope {
+		private final String prefix;
+		private final String namespace;
+		private final Scope parent;
+
+		private Scope(String prefix,String namespace,Scope parent) {
+			this.prefix=prefix;
+			this.namespace=namespace;
+			this.parent=parent;
+		}
+
+		private String resolve(String prefix) {
+			for(Scope scope=this;scope!=null;scope=scope.parent) {
+				if(scope.prefix.equals(prefix)) {
+					return scope.namespace;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Thrown (without stack trace) if an element must be encoded by the {@link Renderer}.
+	 */
+	private static class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private Unsupported() {
+			super(null,null,false,false);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package org.apache.vysper.xmpp.stanza;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLFragment;
+
+/**
+ * Renders the stanzas of a fan-out once. A template relayed to many receivers is addressed to every receiver
+ * (see {@link org.apache.vysper.xmpp.delivery.MulticastStanzaRelay#addressTo(Stanza, org.apache.vysper.xmpp.addressing.Entity)}).
+ * The copies differ from the template only in the <code>to</code> attribute and share the inner elements of the template.
+ * Therefore, the template is rendered once and the rendering of a copy splices the receiver into the bytes of the template.
+ * <br>The encoders render all stanzas through this class. Stanzas which aren't copies of a shared template are encoded
+ * by the {@link StanzaEncoder}. A template is dropped as soon as the announced number of copies is rendered. Copies which
+ * are never rendered (e.g. stored offline) would keep the template, therefore templates expire after a few seconds.
+ *
+ * @author notalexa
+ *
+ */
+public class StanzaRenderCache {
+	private static final int MAX_TEMPLATES=1024;
+	private static final long TTL=TimeUnit.SECONDS.toNanos(10);
+	private static final long EXPIRY_INTERVAL=TimeUnit.SECONDS.toNanos(1);
+	private static final String MARKER="vysper"+UUID.randomUUID().toString().replace("-","");
+	private static final byte[] MARKER_BYTES=MARKER.getBytes(StandardCharsets.US_ASCII);
+
+	// keyed by the first inner element of the template
+	private static final ConcurrentHashMap<Key,Template> templates=new ConcurrentHashMap<Key,Template>();
+	private static volatile long lastExpiry=System.nanoTime();
+
+	private StanzaRenderCache() {
+	}
+
+	/**
+	 * Share the rendering of the template with the copies addressed to the receivers of a fan-out. If the template is
+	 * already shared, the copies are added.
+	 *
+	 * @param template the template of a fan-out
+	 * @param copies the number of copies which will be rendered
+	 */
+	public static void share(Stanza template,int copies) {
+		List<XMLFragment> fragments=template.getInnerFragments();
+		if(copies<2||fragments==null||fragments.isEmpty()) {
+			// nothing worth sharing
+			return;
+		}
+		long now=System.nanoTime();
+		if(now-lastExpiry>=EXPIRY_INTERVAL||templates.size()>=MAX_TEMPLATES) {
+			expire(now);
+		}
+		Key key=new Key(fragments.get(0));
+		templates.compute(key,(k,shared)->{
+			if(shared==null||shared.template!=template||shared.isExpired(now)) {
+				shared=new Template(template,now);
+			}
+			shared.pending.addAndGet(copies);
+			return shared;
+		});
+	}
+
+	/**
+	 * Render the element into the buffer.
+	 *
+	 * @param element the element to render
+	 * @param buffer the buffer. The buffer is expanded if needed.
+	 */
+	public static void render(XMLElement element,IoBuffer buffer) {
+		if(templates.isEmpty()||!(renderShared(element,buffer)||renderComposed(element,buffer))) {
+			StanzaEncoder.encode(element,buffer);
+		}
+	}
+
+	/**
+	 *
+	 * @param element the element to render
+	 * @return the UTF-8 encoded rendering of the element
+	 */
+	public static byte[] render(XMLElement element) {
+		IoBuffer buffer=IoBuffer.allocate(256,false);
+		render(element,buffer);
+		buffer.flip();
+		byte[] rendered=new byte[buffer.remaining()];
+		buffer.get(rendered);
+		return rendered;
+	}
+
+	private static Template lookup(XMLElement element) {
+		if(!(element instanceof Stanza)) {
+			return null;
+		}
+		List<XMLFragment> fragments=element.getInnerFragments();
+		if(fragments==null||fragments.isEmpty()) {
+			return null;
+		}
+		Key key=new Key(fragments.get(0));
+		Template shared=templates.get(key);
+		if(shared!=null&&shared.isExpired(System.nanoTime())) {
+			templates.remove(key,shared);
+			return null;
+		}
+		return shared;
+	}
+
+	/**
+	 *
+	 * @return <code>true</code> if the element is the copy of a shared template and was rendered
+	 */
+	private static boolean renderShared(XMLElement element,IoBuffer buffer) {
+		Template shared=lookup(element);
+		if(shared==null||!shared.render((Stanza)element,buffer)) {
+			return false;
+		}
+		if(shared.pending.decrementAndGet()<=0) {
+			// the fan-out is done
+			templates.remove(new Key(element.getInnerFragments().get(0)),shared);
+		}
+		return true;
+	}
+
+	/**
+	 * Wrappers of stanzas (like the body of a BOSH response) are composed of the rendering of the wrapper and the
+	 * (shared) renderings of the stanzas. Stanzas in the namespace of the wrapper (or without a namespace, which would
+	 * inherit the namespace of the wrapper) are rendered in context, therefore the wrapper is composed only if all
+	 * stanzas declare their own, non-empty namespace.
+	 *
+	 * @return <code>true</code> if at least one inner element is the copy of a shared template and the element was rendered
+	 */
+	private static boolean renderComposed(XMLElement element,IoBuffer buffer) {
+		List<XMLFragment> fragments=element.getInnerFragments();
+		if(fragments==null||fragments.isEmpty()) {
+			return false;
+		}
+		boolean shared=false;
+		for(XMLFragment fragment:fragments) {
+			if(!(fragment instanceof XMLElement)) {
+				return false;
+			}
+			XMLElement inner=(XMLElement)fragment;
+			String namespace=inner.getNamespaceURI();
+			if((inner.getNamespacePrefix()!=null&&inner.getNamespacePrefix().length()>0)||namespace==null||namespace.length()==0
+					||namespace.equals(element.getNamespaceURI())) {
+				return false;
+			}
+			shared|=lookup(inner)!=null;
+		}
+		if(!shared||!StanzaEncoder.encodeOpening(element,buffer)) {
+			return false;
+		}
+		for(XMLFragment fragment:fragments) {
+			if(!renderShared((XMLElement)fragment,buffer)) {
+				StanzaEncoder.encode((XMLElement)fragment,buffer);
+			}
+		}
+		StanzaEncoder.encodeClosing(element,buffer);
+		return true;
+	}
+
+	/**
+	 * Remove expired templates. If the cache is still full, it's cleared.
+	 */
+	private static void expire(long now) {
+		lastExpiry=now;
+		for(Iterator<Template> it=templates.values().iterator();it.hasNext();) {
+			if(it.next().isExpired(now)) {
+				it.remove();
+			}
+		}
+		if(templates.size()>=MAX_TEMPLATES) {
+			templates.clear();
+		}
+	}
+
+	private static int indexOf(byte[] bytes,byte[] pattern) {
+		for(int i=0;i+pattern.length<=bytes.length;i++) {
+			int j=0;
+			while(j<pattern.length&&bytes[i+j]==pattern[j]) {
+				j++;
+			}
+			if(j==pattern.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Identity of an inner element.
+	 */
+	private static class Key {
+		private final XMLFragment fragment;
+
+		private Key(XMLFragment fragment) {
+			this.fragment=fragment;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(fragment);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key&&((Key)obj).fragment==fragment;
+		}
+	}
+
+	private static class Template {
+		private final Stanza template;
+		private final long created;
+		// the number of copies not yet rendered
+		private final AtomicInteger pending=new AtomicInteger();
+		// the rendering of the template up to the value of the to attribute and the rest of it
+		private volatile byte[] prefix;
+		private volatile byte[] suffix;
+
+		private Template(Stanza template,long created) {
+			this.template=template;
+			this.created=created;
+		}
+
+		private boolean isExpired(long now) {
+			return now-created>=TTL;
+		}
+
+		/**
+		 *
+		 * @param stanza the stanza to render
+		 * @param buffer the buffer
+		 * @return <code>true</code> if the stanza is a copy of the template and was rendered
+		 */
+		private boolean render(Stanza stanza,IoBuffer buffer) {
+			if(stanza==template) {
+				return false;
+			}
+			String to=addressedTo(stanza);
+			if(to==null||!renderTemplate()) {
+				return false;
+			}
+			byte[] prefix=this.prefix;
+			byte[] suffix=this.suffix;
+			buffer.expand(prefix.length).put(prefix);
+			StanzaEncoder.encodeAttributeValue(to,buffer);
+			buffer.expand(suffix.length).put(suffix);
+			return true;
+		}
+
+		/**
+		 * Render the template (once) with a marker as the receiver.
+		 *
+		 * @return <code>true</code> if the template can be spliced
+		 */
+		private synchronized boolean renderTemplate() {
+			if(suffix==null) {
+				Stanza marked=StanzaBuilder.createClone(template,true,Collections.singletonList(new Attribute("to",MARKER))).build();
+				IoBuffer buffer=IoBuffer.allocate(256,false);
+				StanzaEncoder.encode(marked,buffer);
+				buffer.flip();
+				byte[] rendered=new byte[buffer.remaining()];
+				buffer.get(rendered);
+				int index=indexOf(rendered,MARKER_BYTES);
+				if(index<0) {
+					prefix=null;
+					suffix=new byte[0];
+				} else {
+					prefix=Arrays.copyOfRange(rendered,0,index);
+					suffix=Arrays.copyOfRange(rendered,index+MARKER_BYTES.length,rendered.length);
+				}
+			}
+			return prefix!=null;
+		}
+
+		/**
+		 * A copy has the name, the namespace and the inner elements of the template. The attributes are the attributes
+		 * of the template with the <code>to</code> attribute replaced (or added at the end).
+		 *
+		 * @return the receiver of the stanza if the stanza is a copy of the template, <code>null</code> otherwise
+		 */
+		private String addressedTo(Stanza stanza) {
+			if(!stanza.getName().equals(template.getName())
+					||!Objects.equals(stanza.getNamespaceURI(),template.getNamespaceURI())
+					||!Objects.equals(stanza.getNamespacePrefix(),template.getNamespacePrefix())) {
+				return null;
+			}
+			List<XMLFragment> fragments=stanza.getInnerFragments();
+			List<XMLFragment> templateFragments=template.getInnerFragments();
+			if(fragments.size()!=templateFragments.size()) {
+				return null;
+			}
+			for(int i=0;i<fragments.size();i++) {
+				if(fragments.get(i)!=templateFragments.get(i)) {
+					return null;
+				}
+			}
+			List<Attribute> attributes=stanza.getAttributes();
+			List<Attribute> templateAttributes=template.getAttributes();
+			int toIndex=templateAttributes.size();
+			for(int i=0;i<templateAttributes.size();i++) {
+				if(isTo(templateAttributes.get(i))) {
+					toIndex=i;
+					break;
+				}
+			}
+			if(attributes.size()!=Math.max(templateAttributes.size(),toIndex+1)) {
+				return null;
+			}
+			for(int i=0;i<attributes.size();i++) {
+				Attribute attribute=attributes.get(i);
+				if(i==toIndex) {
+					if(!isTo(attribute)) {
+						return null;
+					}
+				} else {
+					Attribute templateAttribute=templateAttributes.get(i);
+					if(!attribute.getName().equals(templateAttribute.getName())
+							||!attribute.getValue().equals(templateAttribute.getValue())
+							||!Objects.equals(attribute.getNamespaceUri(),templateAttribute.getNamespaceUri())) {
+						return null;
+					}
+				}
+			}
+			return attributes.get(toIndex).getValue();
+		}
+
+		private static boolean isTo(Attribute attribute) {
+			return "to".equals(attribute.getName())&&(attribute.getNamespaceUri()==null||attribute.getNamespaceUri().length()==0);
+		}
+	}
+}
@@ -24,10 +24,13 @@ import static org.apache.vysper.xmpp.state.resourcebinding.ResourceState.AVAILAB
 import static org.apache.vysper.xmpp.state.resourcebinding.ResourceState.CONNECTED;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.server.SessionContext;
@@ -38,6 +41,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * assigns and holds resource ids and their related session
+ * 
+ * the registry is lock free: the resource lists of entities and sessions are immutable snapshots held in
+ * concurrent maps. bind and unbind atomically replace the snapshot of the affected entity and session only,
+ * readers (the delivery path) never block and always see a consistent list.
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -49,40 +56,80 @@ public class ResourceRegistry {
 
         private final SessionContext context;
 
-        private ResourceState state;
+        private final AtomicReference<ResourceState> state;
 
-        private Integer priority;
+        private volatile int priority;
+
+        /**
+         * the session as an immutable list, returned when the session is addressed by its full JID
+         */
+        private final List<SessionContext> contextAsList;
 
         SessionData(SessionContext context, ResourceState status, Integer priority) {
             this.context = context;
-            this.state = status;
+            this.contextAsList = Collections.singletonList(context);
+            this.state = new AtomicReference<ResourceState>(status);
             this.priority = priority == null ? 0 : priority;
         }
 
     }
 
+    /**
+     * the sessions of an entity sharing the highest priority
+     */
+    private static class BestSessions {
+
+        private final int priority;
+
+        private final List<SessionContext> sessions;
+
+        BestSessions(int priority, SessionContext[] sessions) {
+            this.priority = priority;
+            this.sessions = Collections.unmodifiableList(Arrays.asList(sessions));
+        }
+
+    }
+
     private UUIDGenerator resourceIdGenerator = new JVMBuiltinUUIDGenerator();
 
     /**
      * maps resource id to session. note: two resources may point to the same session, but often this
      * is a 1:1 relationship
      */
-    protected final Map<String, SessionData> boundResources = new HashMap<String, SessionData>();
+    protected final Map<String, SessionData> boundResources = new ConcurrentHashMap<String, SessionData>();
 
     /**
      * an entity's list of resources
      * maps bare JID to all its bound resources. the list of resource ids might not be emtpy, and if there
-     * is more than one id, the list usually spans more than 1 session
+     * is more than one id, the list usually spans more than 1 session. the lists are immutable.
      */
-    protected final Map<Entity, List<String>> entityResources = new HashMap<Entity, List<String>>();
+    protected final Map<Entity, List<String>> entityResources = new ConcurrentHashMap<Entity, List<String>>();
 
     /**
      * a session's list of resources
-     * maps a session to all the resource ids bound to it.
+     * maps a session to all the resource ids bound to it. the lists are immutable.
+     */
+    protected final Map<SessionContext, List<String>> sessionResources = new ConcurrentHashMap<SessionContext, List<String>>();
+
+    /**
+     * maps bare JID to its sessions having the highest priority. the entry is rebuilt whenever a resource
+     * of the entity is bound or unbound or changes its priority, so looking up the best sessions (which is done
+     * for every message addressed to a bare JID) neither iterates nor allocates.
      */
-    protected final Map<SessionContext, List<String>> sessionResources = new HashMap<SessionContext, List<String>>();
+    private final Map<Entity, BestSessions> bestSessions = new ConcurrentHashMap<Entity, BestSessions>();
     
-    protected List<SessionBindListener> bindListeners=new ArrayList<SessionBindListener>();
+    /**
+     * dispatches bind and unbind events to the listeners (asynchronously by default)
+     */
+    protected final SessionBindEventBus bindEvents;
+
+    public ResourceRegistry() {
+        this(new SessionBindEventBus());
+    }
+
+    public ResourceRegistry(SessionBindEventBus bindEvents) {
+        this.bindEvents = bindEvents;
+    }
 
     /**
      * allocates new resource ID for the given session and binds it to the session
@@ -96,38 +143,24 @@ public class ResourceRegistry {
         if (sessionContext.getInitiatingEntity() == null) {
             throw new IllegalStateException("session context must have a initiating entity set");
         }
-        String resourceId = resourceIdGenerator.create();
-
-        synchronized (boundResources) {
-            synchronized (entityResources) {
-                synchronized (sessionResources) {
-                    // record session for the resource id
-                    boundResources.put(resourceId, new SessionData(sessionContext, CONNECTED, 0));
-
-                    Entity initiatingEntity = sessionContext.getInitiatingEntity();
-                    List<String> resourceForEntityList = getResourceList(initiatingEntity);
-                    if (resourceForEntityList == null) {
-                        resourceForEntityList = new ArrayList<String>(1);
-                        entityResources.put(getBareEntity(initiatingEntity), resourceForEntityList);
-                    }
-                    resourceForEntityList.add(resourceId);
-                    logger.info("added resource no. " + resourceForEntityList.size() + " to entity {} <- {}",
-                            initiatingEntity.getFullQualifiedName(), resourceId);
-
-                    List<String> resourcesForSessionList = sessionResources.get(sessionContext);
-                    if (resourcesForSessionList == null) {
-                        resourcesForSessionList = new ArrayList<String>(1);
-                        sessionResources.put(sessionContext, resourcesForSessionList);
-                    }
-                    resourcesForSessionList.add(resourceId);
-                    logger.info("added resource no. " + resourcesForSessionList.size() + " to session {} <- {}",
-                            sessionContext.getSessionId(), resourceId);
-                }
-            }
-        }
-	    if(bindListeners.size()>0) for(SessionBindListener listener:bindListeners) {
-	    	listener.onSessionBound(resourceId, sessionContext);
-	    }
+        final String resourceId = resourceIdGenerator.create();
+
+        // record session for the resource id first, readers resolve ids from the lists below
+        boundResources.put(resourceId, new SessionData(sessionContext, CONNECTED, 0));
+
+        Entity initiatingEntity = sessionContext.getInitiatingEntity();
+        List<String> resourceForEntityList = entityResources.compute(getBareEntity(initiatingEntity),
+                (entity, resources) -> with(resources, resourceId));
+        logger.info("added resource no. " + resourceForEntityList.size() + " to entity {} <- {}",
+                initiatingEntity.getFullQualifiedName(), resourceId);
+        updateBestSessions(getBareEntity(initiatingEntity));
+
+        List<String> resourcesForSessionList = sessionResources.compute(sessionContext,
+                (session, resources) -> with(resources, resourceId));
+        logger.info("added resource no. " + resourcesForSessionList.size() + " to session {} <- {}",
+                sessionContext.getSessionId(), resourceId);
+
+        bindEvents.publishBound(resourceId, sessionContext);
         return resourceId;
     }
 
@@ -140,38 +173,26 @@ public class ResourceRegistry {
      * @param resourceId
      */
     public boolean unbindResource(String resourceId) {
-        boolean noResourceRemainsForSession = false;
-        SessionContext sessionContext=null;
-        synchronized (boundResources) {
-            synchronized (entityResources) {
-                synchronized (sessionResources) {
-                    sessionContext = getSessionContext(resourceId);
-
-                    // remove from entity's list of resources
-                    List<String> resourceListForEntity = getResourceList(sessionContext.getInitiatingEntity());
-                    resourceListForEntity.remove(resourceId);
-                    if (resourceListForEntity.isEmpty())
-                        entityResources.remove(sessionContext.getInitiatingEntity());
-
-                    // remove from session's list of resources
-                    List<String> resourceListForSession = sessionResources.get(sessionContext);
-                    resourceListForSession.remove(resourceId);
-                    noResourceRemainsForSession = resourceListForSession.isEmpty();
-                    if (noResourceRemainsForSession)
-                        sessionResources.remove(sessionContext);
-
-                    // remove from overall list of bound resource
-                    boundResources.remove(resourceId);
-                }
-            }
-        }
-        if(sessionContext!=null) {
-	        synchronized (bindListeners) {
-	    	    if(bindListeners.size()>0) for(SessionBindListener listener:bindListeners) {
-	    	    	listener.onSessionUnbound(resourceId, sessionContext);
-	    	    }
-	        }
+        SessionData data = boundResources.get(resourceId);
+        if (data == null) {
+            return false;
         }
+        SessionContext sessionContext = data.context;
+        final List<String> removeResourceIds = Collections.singletonList(resourceId);
+
+        // remove from entity's list of resources
+        Entity bareEntity = getBareEntity(sessionContext.getInitiatingEntity());
+        entityResources.computeIfPresent(bareEntity, (entity, resources) -> without(resources, removeResourceIds));
+        updateBestSessions(bareEntity);
+
+        // remove from session's list of resources
+        boolean noResourceRemainsForSession = sessionResources.computeIfPresent(sessionContext,
+                (session, resources) -> without(resources, removeResourceIds)) == null;
+
+        // remove from overall list of bound resource
+        boundResources.remove(resourceId);
+
+        bindEvents.publishUnbound(removeResourceIds, sessionContext);
         return noResourceRemainsForSession;
     }
 
@@ -184,50 +205,89 @@ public class ResourceRegistry {
         if (unbindingSessionContext == null)
             return;
 
-        List<String> removeResourceIds = Collections.emptyList();
-        synchronized (boundResources) {
-            synchronized (entityResources) {
-                synchronized (sessionResources) {
-                    // collect all remove candidates
-                    removeResourceIds = getResourcesForSessionInternal(unbindingSessionContext);
-
-                    // actually remove from bound resources
-                    for (String removeResourceId : removeResourceIds) {
-                        boundResources.remove(removeResourceId);
-                    }
-
-                    // actually remove from entity map
-                    List<String> resourceList = getResourceList(unbindingSessionContext.getInitiatingEntity());
-                    if (resourceList != null) {
-                        resourceList.removeAll(removeResourceIds);
-                    }
-
-                    // actually remove from session map
-                    sessionResources.remove(unbindingSessionContext);
-                }
+        // collect all remove candidates (and remove from session map)
+        final List<String> removeResourceIds = sessionResources.remove(unbindingSessionContext);
+        if (removeResourceIds == null) {
+            return;
+        }
+
+        // actually remove from entity map
+        Entity bareEntity = getBareEntity(unbindingSessionContext.getInitiatingEntity());
+        entityResources.computeIfPresent(bareEntity, (entity, resources) -> without(resources, removeResourceIds));
+        updateBestSessions(bareEntity);
+
+        // actually remove from bound resources
+        for (String removeResourceId : removeResourceIds) {
+            boundResources.remove(removeResourceId);
+        }
+
+        // one event for the whole teardown
+        bindEvents.publishUnbound(removeResourceIds, unbindingSessionContext);
+    }
+
+    /**
+     * rebuilds the best sessions of the entity from the current resource list. updates of the same entity are
+     * serialized by the map, so the last update always reflects the latest bind, unbind or priority change.
+     */
+    private void updateBestSessions(Entity bareEntity) {
+        if (bareEntity == null)
+            return;
+        bestSessions.compute(bareEntity, (entity, previous) -> computeBestSessions(entityResources.get(entity)));
+    }
+
+    private BestSessions computeBestSessions(List<String> resourceIds) {
+        if (resourceIds == null)
+            return null;
+        int bestPrio = Integer.MIN_VALUE;
+        SessionContext[] best = new SessionContext[resourceIds.size()];
+        int count = 0;
+        for (String resourceId : resourceIds) {
+            SessionData sessionData = boundResources.get(resourceId);
+            if (sessionData == null)
+                continue;
+            int priority = sessionData.priority;
+            if (count == 0 || priority > bestPrio) {
+                bestPrio = priority;
+                count = 0;
+            } else if (priority < bestPrio) {
+                continue;
             }
+            best[count++] = sessionData.context;
         }
-        synchronized (bindListeners) {
-    	    if(bindListeners.size()>0) for(SessionBindListener listener:bindListeners) {
-    	    	for(String resourceId:removeResourceIds) {
-    	    		listener.onSessionUnbound(resourceId, unbindingSessionContext);
-    	    	}
-    	    }
+        if (count == 0)
+            return null;
+        return new BestSessions(bestPrio, count == best.length ? best : Arrays.copyOf(best, count));
+    }
+
+    /**
+     * @return an immutable copy of the list with the resource id added
+     */
+    private static List<String> with(List<String> resources, String resourceId) {
+        if (resources == null) {
+            return Collections.singletonList(resourceId);
         }
+        List<String> copy = new ArrayList<String>(resources.size() + 1);
+        copy.addAll(resources);
+        copy.add(resourceId);
+        return Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * @return an immutable copy of the list with the resource ids removed, null if no resource id remains (which
+     * removes the mapping)
+     */
+    private static List<String> without(List<String> resources, Collection<String> resourceIds) {
+        List<String> copy = new ArrayList<String>(resources);
+        copy.removeAll(resourceIds);
+        return copy.isEmpty() ? null : Collections.unmodifiableList(copy);
     }
     
     public void addBindListener(SessionBindListener listener) {
-    	synchronized (bindListeners) {
-	    	if(!bindListeners.contains(listener)) {
-	    		bindListeners.add(listener);
-	    	}
-    	}
+        bindEvents.addListener(listener);
     }
     
-    public synchronized void removeBindListener(SessionBindListener listener) {
-    	synchronized (bindListeners) {
-    		bindListeners.remove(listener);
-    	}
+    public void removeBindListener(SessionBindListener listener) {
+        bindEvents.removeListener(listener);
     }
 
     /**
@@ -242,8 +302,12 @@ public class ResourceRegistry {
         return null;
     }
 
+    /**
+     * the list is immutable and safely published, it backs {@link SessionContext#getBoundResources()}
+     */
     public List<String> getResourcesForSession(SessionContext sessionContext) {
-        return Collections.unmodifiableList(getResourcesForSessionInternal(sessionContext));
+        // the list is immutable
+        return getResourcesForSessionInternal(sessionContext);
     }
 
     /*package*/List<String> getResourcesForSessionInternal(SessionContext sessionContext) {
@@ -292,9 +356,9 @@ public class ResourceRegistry {
         if (resourceList == null)
             return Collections.emptyList();
 
-        // if resource should not be considered, return all resources
+        // if resource should not be considered, return all resources (the list is immutable)
         if (considerBareID || entity.getResource() == null)
-            return Collections.unmodifiableList(resourceList);
+            return resourceList;
         // resource not contained, result is empty
         if (!resourceList.contains(entity.getResource())) {
             return Collections.emptyList();
@@ -309,11 +373,14 @@ public class ResourceRegistry {
      * @param entity
      */
     public List<SessionContext> getSessions(Entity entity) {
-        List<SessionContext> sessionContexts = new ArrayList<SessionContext>();
-
         List<String> boundResources = getBoundResources(entity, false);
+        List<SessionContext> sessionContexts = new ArrayList<SessionContext>(boundResources.size());
+
         for (String resourceId : boundResources) {
-            sessionContexts.add(getSessionContext(resourceId));
+            SessionContext sessionContext = getSessionContext(resourceId);
+            // the resource may have been unbound concurrently
+            if (sessionContext != null)
+                sessionContexts.add(sessionContext);
         }
 
         return sessionContexts;
@@ -328,17 +395,16 @@ public class ResourceRegistry {
      * @return returns the sessions matching the given JID (bare) with same or higher priority
      */
     public List<SessionContext> getSessions(Entity entity, Integer prioThreshold) {
-        if (prioThreshold == null)
-            prioThreshold = 0;
-        List<SessionContext> results = new ArrayList<SessionContext>();
-
+        int threshold = prioThreshold == null ? 0 : prioThreshold;
         List<String> boundResourceIds = getBoundResources(entity, true);
+        List<SessionContext> results = new ArrayList<SessionContext>(boundResourceIds.size());
+
         for (String resourceId : boundResourceIds) {
             SessionData sessionData = boundResources.get(resourceId);
             if (sessionData == null)
                 continue;
 
-            if (sessionData.priority >= prioThreshold) {
+            if (sessionData.priority >= threshold) {
                 results.add(sessionData.context);
             }
         }
@@ -362,38 +428,37 @@ public class ResourceRegistry {
      * @param prioThreshold if not NULL, only resources will be returned having same or higher priority. a common value
      * for the threshold is 0 (zero).
      * @return for a bare JID, it will return the highest prioritized sessions. for a full JID, it will return the
-     * related session.
+     * related session. the list is immutable.
      */
     public List<SessionContext> getHighestPrioSessions(Entity entity, Integer prioThreshold) {
-        Integer currentPrio = prioThreshold == null ? Integer.MIN_VALUE : prioThreshold;
-        List<SessionContext> results = new ArrayList<SessionContext>();
-
-        boolean isResourceSet = entity.isResourceSet();
-
-        List<String> boundResourceIds = getBoundResources(entity, false);
-        for (String resourceId : boundResourceIds) {
-            SessionData sessionData = boundResources.get(resourceId);
-            if (sessionData == null)
-                continue;
-
-            if (isResourceSet) {
-                // if resource id matches, there can only be one result
-                // this overrides even parameter prio threshold
-                results.clear();
-                results.add(sessionData.context);
-                return results;
+        if (entity.isResourceSet()) {
+            // if resource id matches, there can only be one result
+            // this overrides even parameter prio threshold
+            SessionData sessionData = boundResources.get(entity.getResource());
+            if (sessionData == null || !isBoundTo(sessionData, entity)) {
+                return Collections.emptyList();
             }
+            return sessionData.contextAsList;
+        }
 
-            if (sessionData.priority > currentPrio) {
-                results.clear(); // discard all accumulated lower prio sessions
-                currentPrio = sessionData.priority;
-                results.add(sessionData.context);
-            } else if (sessionData.priority.intValue() == currentPrio.intValue()) {
-                results.add(sessionData.context);
-            }
+        BestSessions best = bestSessions.get(entity);
+        if (best == null || (prioThreshold != null && best.priority < prioThreshold)) {
+            return Collections.emptyList();
         }
+        return best.sessions;
+    }
 
-        return results;
+    /**
+     * @return true, if the resource is bound to the bare JID of the entity
+     */
+    private boolean isBoundTo(SessionData sessionData, Entity entity) {
+        Entity initiatingEntity = sessionData.context.getInitiatingEntity();
+        return initiatingEntity != null && equals(initiatingEntity.getNode(), entity.getNode())
+                && equals(initiatingEntity.getDomain(), entity.getDomain());
+    }
+
+    private static boolean equals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
     }
 
     /**
@@ -410,11 +475,7 @@ public class ResourceRegistry {
         if (data == null) {
             throw new IllegalArgumentException("resource not registered: " + resourceId);
         }
-        synchronized (data) {
-            boolean result = data.state != state;
-            data.state = state;
-            return result;
-        }
+        return data.state.getAndSet(state) != state;
     }
 
     /**
@@ -430,20 +491,23 @@ public class ResourceRegistry {
         SessionData data = boundResources.get(resourceId);
         if (data == null)
             return null;
-        return data.state;
+        return data.state.get();
     }
 
     public void setResourcePriority(String resourceId, int priority) {
         if (resourceId == null)
             return;
         SessionData data = boundResources.get(resourceId);
-        if (data == null)
+        if (data == null || data.priority == priority)
             return;
         data.priority = priority;
+        updateBestSessions(getBareEntity(data.context.getInitiatingEntity()));
     }
 
     public List<String> getInterestedResources(Entity entity) {
         List<String> resources = getResourceList(entity);
+        if (resources == null)
+            return new ArrayList<String>();
         List<String> result = new ArrayList<String>();
         for (String resource : resources) {
             ResourceState resourceState = getResourceState(resource);
@@ -459,6 +523,8 @@ public class ResourceRegistry {
      */
     public List<String> getAvailableResources(Entity entity) {
         List<String> resources = getResourceList(entity);
+        if (resources == null)
+            return new ArrayList<String>();
         List<String> result = new ArrayList<String>();
         for (String resource : resources) {
             ResourceState resourceState = getResourceState(resource);
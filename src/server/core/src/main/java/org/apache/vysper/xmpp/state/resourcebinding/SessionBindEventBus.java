@@ -0,0 +1,131 @@
+package org.apache.vysper.xmpp.state.resourcebinding;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.vysper.xmpp.delivery.inbound.RecipientOrderedExecutor;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dispatches bind and unbind events of a {@link ResourceRegistry} to the registered {@link SessionBindListener}s.
+ * <br>By default, the events are dispatched asynchronously. The thread binding or unbinding a session (typically
+ * a MINA I/O thread) only enqueues the event and a slow listener can't stall I/O anymore. Events are dispatched in
+ * lanes sharded by the bare JID of the session. Therefore, the events of one session (and even of one user) are seen
+ * by the listeners in the order they occurred.
+ * <br>All resources removed by one session teardown are reported in one event
+ * (see {@link SessionBindListener#onSessionUnbound(List, SessionContext)}).
+ *
+ * @author notalexa
+ *
+ */
+public class SessionBindEventBus {
+	private static final AtomicInteger BUS_COUNT=new AtomicInteger();
+
+	final Logger logger = LoggerFactory.getLogger(SessionBindEventBus.class);
+
+	private final CopyOnWriteArrayList<SessionBindListener> listeners=new CopyOnWriteArrayList<SessionBindListener>();
+	private final RecipientOrderedExecutor executor;
+
+	/**
+	 * Create an asynchronous bus with one lane per available processor. The lanes are drained by daemon threads
+	 * which terminate if idle.
+	 */
+	public SessionBindEventBus() {
+		this(new RecipientOrderedExecutor(Runtime.getRuntime().availableProcessors(),newDispatcherPool()));
+	}
+
+	/**
+	 *
+	 * @param executor the executor dispatching the events or <code>null</code> if the events should be dispatched synchronously
+	 * (on the thread binding or unbinding the session)
+	 */
+	public SessionBindEventBus(RecipientOrderedExecutor executor) {
+		this.executor=executor;
+	}
+
+	private static ExecutorService newDispatcherPool() {
+		String prefix="vysper-bind-events-"+BUS_COUNT.incrementAndGet()+"-";
+		AtomicInteger count=new AtomicInteger();
+		return Executors.newCachedThreadPool(r->{
+			Thread thread=new Thread(r,prefix+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public boolean isAsynchronous() {
+		return executor!=null;
+	}
+
+	public void addListener(SessionBindListener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(SessionBindListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Publish the binding of a resource.
+	 *
+	 * @param resource the resource id
+	 * @param sessionContext the session the resource was bound to
+	 */
+	public void publishBound(String resource,SessionContext sessionContext) {
+		if(!listeners.isEmpty()) {
+			dispatch(sessionContext,()->{
+				for(SessionBindListener listener:listeners) {
+					try {
+						listener.onSessionBound(resource,sessionContext);
+					} catch(RuntimeException e) {
+						logger.warn("bind listener failed for resource "+resource,e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Publish the removal of resources from a session.
+	 *
+	 * @param resources the resource ids removed (in one operation) from the session
+	 * @param sessionContext the session the resources were bound to
+	 */
+	public void publishUnbound(List<String> resources,SessionContext sessionContext) {
+		if(!listeners.isEmpty()&&!resources.isEmpty()) {
+			List<String> unbound=Collections.unmodifiableList(resources);
+			dispatch(sessionContext,()->{
+				for(SessionBindListener listener:listeners) {
+					try {
+						listener.onSessionUnbound(unbound,sessionContext);
+					} catch(RuntimeException e) {
+						logger.warn("bind listener failed for resources "+unbound,e);
+					}
+				}
+			});
+		}
+	}
+
+	private void dispatch(SessionContext sessionContext,Runnable event) {
+		if(executor==null) {
+			event.run();
+		} else {
+			executor.submit(null,sessionContext.getInitiatingEntity(),()->{
+				event.run();
+				return null;
+			});
+		}
+	}
+
+	public void shutdown() {
+		if(executor!=null) {
+			executor.shutdown();
+		}
+	}
+}
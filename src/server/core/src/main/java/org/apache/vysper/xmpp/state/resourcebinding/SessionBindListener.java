@@ -1,5 +1,7 @@
 package org.apache.vysper.xmpp.state.resourcebinding;
 
+import java.util.List;
+
 import org.apache.vysper.xmpp.server.SessionContext;
 
 public interface SessionBindListener {
@@ -19,4 +21,17 @@ public interface SessionBindListener {
 	public default void onSessionUnbound(String resource,SessionContext sessionContext) {
 	}
 
+	/** 
+	 * Called, whenever resources are removed from a session. All resources removed in one operation (typically
+	 * the teardown of the session) are reported at once. The default implementation calls
+	 * {@link #onSessionUnbound(String, SessionContext)} for every resource.
+	 * @param resources the resource ids
+	 * @param sessionContext the session context
+	 */
+	public default void onSessionUnbound(List<String> resources,SessionContext sessionContext) {
+		for(String resource:resources) {
+			onSessionUnbound(resource,sessionContext);
+		}
+	}
+
 }
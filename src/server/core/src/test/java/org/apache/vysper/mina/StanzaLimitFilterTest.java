@@ -0,0 +1,148 @@
+package org.apache.vysper.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+
+/**
+ *
+ * @author notalexa
+ *
+ */
+public class StanzaLimitFilterTest {
+	private static final String HEADER="<?xml version='1.0'?><stream:stream xmlns='jabber:client' "
+			+"xmlns:stream='http://etherx.jabber.org/streams' to='example.com' version='1.0'>";
+
+	private static StanzaLimitFilter.Scanner open(int maxStanzaSize,int maxDepth,int maxAttributes) {
+		StanzaLimitFilter.Scanner scanner=new StanzaLimitFilter(maxStanzaSize,maxDepth,maxAttributes).new Scanner();
+		assertNull(scan(scanner,HEADER));
+		return scanner;
+	}
+
+	private static String scan(StanzaLimitFilter.Scanner scanner,String s) {
+		return scanner.scan(IoBuffer.wrap(s.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String repeat(char c,int count) {
+		StringBuilder builder=new StringBuilder(count);
+		for(int i=0;i<count;i++) {
+			builder.append(c);
+		}
+		return builder.toString();
+	}
+
+	@Test
+	public void testWithinLimits() {
+		StanzaLimitFilter.Scanner scanner=open(512,2,4);
+		assertNull(scan(scanner,"<message to='a@example.com' type='chat'><body>hi</body></message>"));
+		assertNull(scan(scanner,"<presence/>"));
+		assertNull(scan(scanner,"<iq type='get' id='1'><query xmlns='jabber:iq:roster'/></iq>"));
+		assertNull(scan(scanner,"</stream:stream>"));
+	}
+
+	@Test
+	public void testStanzaSize() {
+		StanzaLimitFilter.Scanner scanner=open(512,0,0);
+		// the limit applies per stanza
+		for(int i=0;i<4;i++) {
+			assertNull(scan(scanner,"<message><body>"+repeat('x',400)+"</body></message>"));
+		}
+		assertNotNull(scan(scanner,"<message><body>"+repeat('x',600)+"</body></message>"));
+	}
+
+	@Test
+	public void testStanzaSizeAcrossBuffers() {
+		StanzaLimitFilter.Scanner scanner=open(512,0,0);
+		String stanza="<message><body>"+repeat('x',600)+"</body></message>";
+		int violation=-1;
+		for(int i=0;i<stanza.length()&&violation<0;i+=50) {
+			if(scan(scanner,stanza.substring(i,Math.min(stanza.length(),i+50)))!=null) {
+				violation=i;
+			}
+		}
+		// the 513th byte is in the buffer starting at 500
+		assertEquals(500,violation);
+	}
+
+	@Test
+	public void testDepth() {
+		StanzaLimitFilter.Scanner scanner=open(0,2,0);
+		assertNull(scan(scanner,"<message><body>hi</body></message>"));
+		assertNotNull(scan(open(0,2,0),"<message><a><b>deep</b></a></message>"));
+		// empty elements count, too
+		assertNull(scan(scanner,"<message><a/></message>"));
+		assertNotNull(scan(open(0,2,0),"<message><a><b/></a></message>"));
+	}
+
+	@Test
+	public void testDepthAcrossBuffers() {
+		StanzaLimitFilter.Scanner scanner=open(0,2,0);
+		assertNull(scan(scanner,"<message><a"));
+		assertNull(scan(scanner,"><b"));
+		assertNotNull(scan(scanner,">"));
+	}
+
+	@Test
+	public void testAttributes() {
+		StanzaLimitFilter.Scanner scanner=open(0,0,4);
+		assertNull(scan(scanner,"<message a='1' b='2' c='3' d='4'/>"));
+		// '=' in values isn't an attribute
+		assertNull(scan(scanner,"<message a='x=y=z' b=\"1=2\"/>"));
+		assertNotNull(scan(scanner,"<message a='1' b='2' c='3' d='4' e='5'/>"));
+	}
+
+	@Test
+	public void testQuotes() {
+		StanzaLimitFilter.Scanner scanner=open(0,2,4);
+		// tags in attribute values aren't tags
+		assertNull(scan(scanner,"<message a='<x><y><z>' b=\"it's > it\"><body>1 &lt; 2</body></message>"));
+		assertNull(scan(scanner,"<message a=\"<x/><y/>\"/>"));
+		assertNull(scan(scanner,"<message a='\"<x>\"'><body/></message>"));
+	}
+
+	@Test
+	public void testCData() {
+		StanzaLimitFilter.Scanner scanner=open(0,2,0);
+		assertNull(scan(scanner,"<message><body><![CDATA[<a><b><c>]] > ]></c>]]></body></message>"));
+		// the end of the section straddles buffers
+		assertNull(scan(scanner,"<message><body><![CDATA[<a><b>]"));
+		assertNull(scan(scanner,"]"));
+		assertNull(scan(scanner,"></body></message>"));
+		assertNotNull(scan(scanner,"<message><a><b>"));
+	}
+
+	@Test
+	public void testProcessingInstruction() {
+		StanzaLimitFilter.Scanner scanner=open(0,2,0);
+		assertNull(scan(scanner,"<message><body><?pi <a><b> ?></body></message>"));
+	}
+
+	@Test
+	public void testStreamRestart() {
+		StanzaLimitFilter.Scanner scanner=open(0,2,0);
+		assertNull(scan(scanner,"<message><body>hi</body></message>"));
+		// the restart isn't an element of the stream
+		assertNull(scan(scanner,"<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams' version='1.0'>"));
+		assertNull(scan(scanner,"<message><a/></message>"));
+		assertNull(scan(scanner,"<message><body>hi</body></message>"));
+		// names starting with stream are elements
+		assertNull(scan(scanner,"<streams><a/></streams>"));
+		assertNull(scan(scanner,"</stream:stream>"));
+		// a new stream may start after the stream is closed
+		assertNull(scan(scanner,HEADER));
+		assertNull(scan(scanner,"<message><a/></message>"));
+	}
+
+	@Test
+	public void testStanzaStart() {
+		StanzaLimitFilter.Scanner scanner=open(0,2,0);
+		String completed="<presence/>\n<message><body>hi</body></message>";
+		assertNotNull(scan(scanner,completed+"<message><a><b><c>"));
+		assertEquals(completed.length(),scanner.stanzaStart);
+	}
+}
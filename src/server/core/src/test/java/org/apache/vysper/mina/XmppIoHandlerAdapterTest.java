@@ -0,0 +1,163 @@
+package org.apache.vysper.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
+import org.apache.vysper.xmpp.metrics.MetricsSink;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.protocol.StanzaProcessor;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.junit.Test;
+
+/**
+ *
+ * @author notalexa
+ *
+ */
+public class XmppIoHandlerAdapterTest {
+	private static final int SESSIONS=500;
+	private static final int STANZAS=100;
+
+	/**
+	 * The setup of {@link TCPEndpoint.ExecutionModel#ORDERED_POOL}: the stanzas of many sessions are interleaved (like
+	 * the I/O processors do) and executed on an ordered pool which calls the adapter. The stanzas of each session must
+	 * be processed one at a time and in order.
+	 */
+	@Test
+	public void testOrderedExecution() throws Exception {
+		RecordingProcessor processor=new RecordingProcessor(SESSIONS*STANZAS);
+		XmppIoHandlerAdapter adapter=new XmppIoHandlerAdapter(null,null);
+		adapter.setStanzaProcessor(processor);
+		Map<String,Object> serverValues=new HashMap<String,Object>();
+		serverValues.put("getMetricsSink",MetricsSink.NONE);
+		ServerRuntimeContext serverContext=proxy(ServerRuntimeContext.class,serverValues);
+		IoSession[] sessions=new IoSession[SESSIONS];
+		for(int i=0;i<SESSIONS;i++) {
+			sessions[i]=new DummySession();
+			adapter.sessionCreated(sessions[i]);
+			Map<String,Object> sessionValues=new HashMap<String,Object>();
+			sessionValues.put("getServerRuntimeContext",serverContext);
+			sessionValues.put("getSessionId","session"+i);
+			sessions[i].setAttribute(XmppIoHandlerAdapter.ATTRIBUTE_VYSPER_SESSION,proxy(SessionContext.class,sessionValues));
+		}
+		OrderedThreadPoolExecutor executor=new OrderedThreadPoolExecutor(4,16,30,TimeUnit.SECONDS,Executors.defaultThreadFactory());
+		try {
+			for(int n=0;n<STANZAS;n++) {
+				for(IoSession session:sessions) {
+					Stanza stanza=new StanzaBuilder("message",NamespaceURIs.JABBER_CLIENT).addAttribute("id",Integer.toString(n)).build();
+					executor.execute(new Received(adapter,session,stanza));
+				}
+			}
+			assertTrue(processor.processed.await(60,TimeUnit.SECONDS));
+		} finally {
+			executor.shutdown();
+		}
+		assertNull(processor.failure.get());
+		assertEquals(SESSIONS,processor.next.size());
+		for(AtomicInteger next:processor.next.values()) {
+			assertEquals(STANZAS,next.get());
+		}
+	}
+
+	/**
+	 * With direct TLS, a stream opened for another domain than the one TLS was started for is rejected (before any
+	 * context is resolved).
+	 */
+	@Test
+	public void testDirectTLSDomainMismatch() throws Exception {
+		XmppIoHandlerAdapter adapter=new XmppIoHandlerAdapter(null,null);
+		IoSession session=new DummySession();
+		adapter.sessionCreated(session);
+		session.setAttribute(DirectTLSFilter.ATTRIBUTE_TLS_DOMAIN,"vysper.org");
+		Stanza streamStart=new StanzaBuilder("stream",NamespaceURIs.HTTP_ETHERX_JABBER_ORG_STREAMS,"stream").addAttribute("to","example.org").build();
+		adapter.messageReceived(session,streamStart);
+		assertNull(session.getAttribute(XmppIoHandlerAdapter.ATTRIBUTE_VYSPER_SESSION));
+		assertTrue(session.getCloseFuture().isClosed());
+	}
+
+	private static <T> T proxy(Class<T> type,Map<String,Object> values) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),new Class<?>[] { type },(proxy,method,args)->{
+			switch(method.getName()) {
+			case "equals":
+				return proxy==args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return type.getSimpleName();
+			default:
+				return values.get(method.getName());
+			}
+		}));
+	}
+
+	/**
+	 * A stanza received by a session, the event calls the adapter directly (instead of the filter chain).
+	 */
+	private static class Received extends IoEvent {
+		private final XmppIoHandlerAdapter adapter;
+
+		private Received(XmppIoHandlerAdapter adapter,IoSession session,Stanza stanza) {
+			super(IoEventType.MESSAGE_RECEIVED,session,stanza);
+			this.adapter=adapter;
+		}
+
+		@Override
+		public void fire() {
+			try {
+				adapter.messageReceived(getSession(),getParameter());
+			} catch(Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Checks that the ids of the stanzas of a session are processed in sequence.
+	 */
+	private static class RecordingProcessor implements StanzaProcessor {
+		private final Map<SessionContext,AtomicInteger> next=new ConcurrentHashMap<SessionContext,AtomicInteger>();
+		private final AtomicReference<String> failure=new AtomicReference<String>();
+		private final CountDownLatch processed;
+
+		private RecordingProcessor(int count) {
+			processed=new CountDownLatch(count);
+		}
+
+		@Override
+		public void processStanza(ServerRuntimeContext serverRuntimeContext,SessionContext sessionContext,Stanza stanza,SessionStateHolder sessionStateHolder) {
+			AtomicInteger expected=next.computeIfAbsent(sessionContext,s->new AtomicInteger());
+			int id=Integer.parseInt(stanza.getAttributeValue("id"));
+			int current=expected.get();
+			// give other workers the chance to process the same session concurrently
+			Thread.yield();
+			if(current!=id||!expected.compareAndSet(current,id+1)) {
+				failure.compareAndSet(null,sessionContext.getSessionId()+": expected stanza "+current+", got "+id);
+			}
+			processed.countDown();
+		}
+
+		@Override
+		public void processTLSEstablished(SessionContext sessionContext,SessionStateHolder sessionStateHolder) {
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.apache.vysper.xmpp.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author notalexa
+ *
+ */
+public class DomainIndexTest {
+
+	@Test
+	public void testExactLookup() {
+		DomainIndex<String> index=new DomainIndex<String>();
+		assertNull(index.put("example.com","example"));
+		assertNull(index.put("conference.example.com","conference"));
+		assertEquals("example",index.get("example.com"));
+		assertEquals("conference",index.get("conference.example.com"));
+		assertNull(index.get("com"));
+		assertNull(index.get("pubsub.example.com"));
+		assertNull(index.get("example.org"));
+		assertEquals("example",index.put("example.com","replaced"));
+		assertEquals("replaced",index.get("example.com"));
+	}
+
+	@Test
+	public void testFindOwner() {
+		DomainIndex<String> index=new DomainIndex<String>();
+		index.put("example.com","example");
+		index.put("tenant.example.com","tenant");
+		assertEquals("example",index.findOwner("example.com"));
+		assertEquals("example",index.findOwner("conference.example.com"));
+		assertEquals("example",index.findOwner("a.b.c.example.com"));
+		assertEquals("tenant",index.findOwner("tenant.example.com"));
+		assertEquals("tenant",index.findOwner("conference.tenant.example.com"));
+		assertNull(index.findOwner("com"));
+		assertNull(index.findOwner("example.org"));
+		// labels match as a whole
+		assertNull(index.findOwner("otherexample.com"));
+		assertEquals("example",index.findOwner("othertenant.example.com"));
+	}
+
+	@Test
+	public void testRemove() {
+		DomainIndex<String> index=new DomainIndex<String>();
+		index.put("example.com","example");
+		index.put("tenant.example.com","tenant");
+		assertEquals("tenant",index.remove("tenant.example.com"));
+		assertNull(index.get("tenant.example.com"));
+		assertEquals("example",index.findOwner("conference.tenant.example.com"));
+		assertNull(index.remove("unknown.example.com"));
+		assertNull(index.get("unknown.example.com"));
+		assertEquals("example",index.remove("example.com"));
+		assertNull(index.findOwner("conference.tenant.example.com"));
+	}
+
+	@Test
+	public void testTrailingDot() {
+		DomainIndex<String> index=new DomainIndex<String>();
+		index.put("example.com.","example");
+		assertEquals("example",index.get("example.com"));
+		assertEquals("example",index.get("example.com."));
+		assertEquals("example",index.findOwner("conference.example.com."));
+	}
+
+	@Test
+	public void testEmptyLabels() {
+		DomainIndex<String> index=new DomainIndex<String>();
+		assertNull(index.get(""));
+		assertNull(index.findOwner(""));
+		index.put("example.com","example");
+		assertNull(index.get(".example.com"));
+		assertEquals("example",index.findOwner(".example.com"));
+		assertNull(index.get("example..com"));
+		assertNull(index.findOwner("example..com"));
+		index.put("a..b","empty");
+		assertEquals("empty",index.get("a..b"));
+		assertNull(index.get("a.b"));
+	}
+
+	@Test
+	public void testRehash() {
+		DomainIndex<Integer> index=new DomainIndex<Integer>();
+		index.put("example.com",-1);
+		index.put("x.example.com",-2);
+		index.put("a.x.example.com",-3);
+		for(int i=0;i<1000;i++) {
+			index.put("host"+i+".example.com",i);
+			index.put("tld"+i,i);
+		}
+		for(int i=0;i<1000;i++) {
+			assertEquals(Integer.valueOf(i),index.get("host"+i+".example.com"));
+			assertEquals(Integer.valueOf(i),index.get("tld"+i));
+			assertEquals(Integer.valueOf(i),index.findOwner("sub.host"+i+".example.com"));
+		}
+		// nodes moved by a rehash keep their values and children and can still be modified
+		assertEquals(Integer.valueOf(-1),index.get("example.com"));
+		assertEquals(Integer.valueOf(-3),index.get("a.x.example.com"));
+		assertEquals(Integer.valueOf(-2),index.put("x.example.com",-4));
+		assertEquals(Integer.valueOf(-4),index.get("x.example.com"));
+		index.put("b.x.example.com",-5);
+		assertEquals(Integer.valueOf(-5),index.get("b.x.example.com"));
+		assertEquals(Integer.valueOf(-3),index.get("a.x.example.com"));
+	}
+
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		final DomainIndex<String> index=new DomainIndex<String>();
+		index.put("example.com","example");
+		index.put("tenant.example.com","tenant");
+		final AtomicBoolean running=new AtomicBoolean(true);
+		final AtomicReference<String> failure=new AtomicReference<String>();
+		Thread[] readers=new Thread[4];
+		for(int i=0;i<readers.length;i++) {
+			readers[i]=new Thread(()->{
+				while(running.get()&&failure.get()==null) {
+					if(!"example".equals(index.get("example.com"))) {
+						failure.set("lost example.com");
+					} else if(!"tenant".equals(index.findOwner("conference.tenant.example.com"))) {
+						failure.set("lost tenant.example.com");
+					}
+				}
+			});
+			readers[i].start();
+		}
+		try {
+			for(int i=0;i<5000&&failure.get()==null;i++) {
+				index.put("host"+i+".example.com","host");
+				index.put("host"+i+".tenant.example.com","host");
+				index.put("tld"+i,"tld");
+			}
+		} finally {
+			running.set(false);
+			for(Thread reader:readers) {
+				reader.join();
+			}
+		}
+		assertNull(failure.get());
+		assertTrue(index.get("host4999.tenant.example.com")!=null);
+	}
+}
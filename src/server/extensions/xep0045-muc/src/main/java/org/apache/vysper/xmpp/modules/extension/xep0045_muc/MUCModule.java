@@ -20,8 +20,10 @@
 package org.apache.vysper.xmpp.modules.extension.xep0045_muc;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 
 import org.apache.vysper.storage.StorageProviderRegistry;
 import org.apache.vysper.xmpp.addressing.Entity;
@@ -30,6 +32,7 @@ import org.apache.vysper.xmpp.addressing.EntityUtils;
 import org.apache.vysper.xmpp.delivery.StanzaRelay;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.delivery.inbound.RelayResult;
 import org.apache.vysper.xmpp.modules.DefaultDiscoAwareModule;
 import org.apache.vysper.xmpp.modules.core.base.handler.DefaultIQHandler;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler.MUCIqAdminHandler;
@@ -134,24 +137,36 @@ public final class MUCModule extends DefaultDiscoAwareModule implements Componen
 				return super.getHandler(stanza);
 			}
 
+			private final DeliveryFailureStrategy kickUnreachable=new DeliveryFailureStrategy() {
+				
+				@Override
+				public void process(StanzaRelay relay, Stanza failedToDeliverStanza, List<DeliveryException> deliveryException) throws DeliveryException {
+					try {
+						Room room=getConference().findRoom(failedToDeliverStanza.getFrom().getNode());
+						if(room!=null) {
+							Occupant occupant=room.findOccupantByNick(failedToDeliverStanza.getFrom().getResource());
+							if(occupant!=null) {
+								// Kick out
+								occupant.leaveAsync("unreachable");
+							}
+						}
+					} catch(Throwable t) {}
+				}
+			};
+
 			@Override
 			public boolean relay(Stanza stanza) {
-				return relay(stanza,new DeliveryFailureStrategy() {
-					
-					@Override
-					public void process(StanzaRelay relay, Stanza failedToDeliverStanza, List<DeliveryException> deliveryException) throws DeliveryException {
-						try {
-							Room room=getConference().findRoom(failedToDeliverStanza.getFrom().getNode());
-							if(room!=null) {
-								Occupant occupant=room.findOccupantByNick(failedToDeliverStanza.getFrom().getResource());
-								if(occupant!=null) {
-									// Kick out
-									occupant.leaveAsync("unreachable");
-								}
-							}
-						} catch(Throwable t) {}
-					}
-				});
+				return relay(stanza,kickUnreachable);
+			}
+
+			@Override
+			public CompletionStage<RelayResult> relayAsync(Stanza stanza) {
+				return relayAsync(stanza,kickUnreachable);
+			}
+
+			@Override
+			public boolean multicast(Collection<Entity> receivers, Stanza template) {
+				return multicast(receivers,template,kickUnreachable);
 			}
         };
         lookup.addDefaultHandler(new MUCPresenceHandler(this));
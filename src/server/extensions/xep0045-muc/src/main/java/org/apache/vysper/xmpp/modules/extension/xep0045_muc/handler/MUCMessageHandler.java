@@ -20,6 +20,8 @@
 package org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.vysper.compliance.SpecCompliance;
@@ -131,16 +133,16 @@ public class MUCMessageHandler extends DefaultMessageHandler {
                         }
 
                         logger.debug("Relaying message to all room occupants");
+                        List<Entity> receivers = new ArrayList<Entity>();
                         for (Occupant occupent : room.getOccupants()) {
                             logger.debug("Relaying message to  {}", occupent);
-                            List<Attribute> replaceAttributes = new ArrayList<Attribute>();
-                            replaceAttributes.add(new Attribute("from", roomAndSendingNick.getFullQualifiedName()));
-                            replaceAttributes.add(new Attribute("to", occupent.getJid().getFullQualifiedName()));
-
-                            relayStanza(occupent.getJid(), StanzaBuilder.createClone(stanza, true, replaceAttributes)
-                                    .build(), serverRuntimeContext);
-
+                            receivers.add(occupent.getJid());
                         }
+                        // the 'to' attribute is set for each occupant by the relay
+                        Stanza template = StanzaBuilder.createClone(stanza, true,
+                                Collections.singletonList(new Attribute("from", roomAndSendingNick.getFullQualifiedName())))
+                                .build();
+                        relayStanzas(receivers, template, serverRuntimeContext);
 
                         // add to discussion history
                         room.getHistory().append(stanza, sendingOccupant);
@@ -306,4 +308,10 @@ public class MUCMessageHandler extends DefaultMessageHandler {
             logger.warn("presence relaying failed ");
         }
     }
+
+    protected void relayStanzas(Collection<Entity> receivers, Stanza template, ServerRuntimeContext serverRuntimeContext) {
+        if(!serverRuntimeContext.multicast(receivers, template)) {
+            logger.warn("message relaying to occupants failed");
+        }
+    }
 }
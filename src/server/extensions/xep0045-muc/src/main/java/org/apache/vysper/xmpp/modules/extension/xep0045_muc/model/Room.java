@@ -202,6 +202,7 @@ public class Room extends RoomKey implements InfoRequestListener, ItemRequestLis
         } else {
             occupants.put(occupantJid, occupant);
         }
+        module.getConference().getRoomStorageProvider().onOccupantAdded(this, occupantJid);
         notifyOccupantAdded(occupant);
         return occupant;
     }
@@ -243,6 +244,7 @@ public class Room extends RoomKey implements InfoRequestListener, ItemRequestLis
     public void removeOccupant(Entity occupantJid) {
         Occupant occupant=occupants.remove(occupantJid);
         if(occupant!=null) {
+        	module.getConference().getRoomStorageProvider().onOccupantRemoved(this, occupantJid);
         	notifyOccupantRemoved(occupant);
         }
     }
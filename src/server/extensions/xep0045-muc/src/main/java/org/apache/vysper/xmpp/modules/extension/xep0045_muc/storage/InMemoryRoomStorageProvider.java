@@ -21,7 +21,9 @@ package org.apache.vysper.xmpp.modules.extension.xep0045_muc.storage;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.vysper.xmpp.addressing.Entity;
@@ -41,6 +43,11 @@ public class InMemoryRoomStorageProvider implements RoomStorageProvider, Session
 
     private Map<RoomKey, Room> rooms = new ConcurrentHashMap<RoomKey, Room>();
 
+    /**
+     * maps the full JID of an occupant to the rooms the JID is in. Unbinding a session only touches these rooms.
+     */
+    private Map<Entity, Set<RoomKey>> occupiedRooms = new ConcurrentHashMap<Entity, Set<RoomKey>>();
+
     public void initialize() {
         // do nothing
     }
@@ -69,16 +76,51 @@ public class InMemoryRoomStorageProvider implements RoomStorageProvider, Session
 
     public void deleteRoom(Room room) {
         rooms.remove(room);
+        for (Occupant occupant : room.getOccupants()) {
+            onOccupantRemoved(room, occupant.getJid());
+        }
+    }
+
+    @Override
+    public void onOccupantAdded(Room room, Entity occupantJid) {
+        occupiedRooms.compute(occupantJid, (jid, keys) -> {
+            if (keys == null) {
+                keys = ConcurrentHashMap.newKeySet();
+            }
+            keys.add(room);
+            return keys;
+        });
+    }
+
+    @Override
+    public void onOccupantRemoved(Room room, Entity occupantJid) {
+        occupiedRooms.computeIfPresent(occupantJid, (jid, keys) -> {
+            keys.remove(room);
+            return keys.isEmpty() ? null : keys;
+        });
     }
 
 	@Override
 	public void onSessionUnbound(String resource, SessionContext sessionContext) {
-		if(rooms.size()>0) {
-			Entity fullJid=new EntityImpl(sessionContext.getInitiatingEntity(), resource);
-			for(Map.Entry<RoomKey,Room> entry:rooms.entrySet()) {
-				Occupant occupant=entry.getValue().findOccupantByJID(fullJid);
-				if(occupant!=null) {
-					occupant.leaveAsync("unbound");
+		onSessionUnbound(Collections.singletonList(resource),sessionContext);
+	}
+
+	@Override
+	public void onSessionUnbound(List<String> resources, SessionContext sessionContext) {
+		if(occupiedRooms.size()>0) {
+			// only visit the rooms the resources are in
+			for(String resource:resources) {
+				Entity fullJid=new EntityImpl(sessionContext.getInitiatingEntity(), resource);
+				Set<RoomKey> keys=occupiedRooms.get(fullJid);
+				if(keys!=null) {
+					for(RoomKey key:keys) {
+						// resolve the key since the room may have been deleted (and recreated) in the meantime
+						Room room=rooms.get(key);
+						Occupant occupant=room==null?null:room.findOccupantByJID(fullJid);
+						if(occupant!=null) {
+							occupant.leaveAsync("unbound");
+						}
+					}
 				}
 			}
 		}
@@ -22,6 +22,7 @@ package org.apache.vysper.xmpp.modules.extension.xep0045_muc.storage;
 import java.util.Collection;
 
 import org.apache.vysper.storage.StorageProvider;
+import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.MUCModule;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Room;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.RoomType;
@@ -40,6 +41,24 @@ public interface RoomStorageProvider extends StorageProvider, SessionBindListene
     Room findRoom(MUCModule module,String nodeName);
 
     void deleteRoom(Room room);
+
+    /**
+     * Called by the room whenever an occupant entered the room.
+     * 
+     * @param room the room
+     * @param occupantJid the full JID of the occupant
+     */
+    default void onOccupantAdded(Room room, Entity occupantJid) {
+    }
+
+    /**
+     * Called by the room whenever an occupant left the room.
+     * 
+     * @param room the room
+     * @param occupantJid the full JID of the occupant
+     */
+    default void onOccupantRemoved(Room room, Entity occupantJid) {
+    }
     
     public class RoomKey {
     	protected final MUCModule module;
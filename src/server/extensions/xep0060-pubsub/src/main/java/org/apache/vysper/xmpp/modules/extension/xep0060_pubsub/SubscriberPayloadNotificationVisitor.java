@@ -19,6 +19,11 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.vysper.compliance.SpecCompliant;
 import org.apache.vysper.xml.fragment.XMLElement;
 import org.apache.vysper.xmpp.addressing.Entity;
@@ -32,6 +37,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * This visitor sends each visited entity the XMLElement specified via the constructor.
+ * The subscribers are collected while visiting, the notifications are relayed with one multicast
+ * per node on {@link #send()}.
  * 
  * @author The Apache MINA Project (http://mina.apache.org)
  */
@@ -51,6 +58,9 @@ public class SubscriberPayloadNotificationVisitor implements SubscriberVisitor {
     // The server JID
     private Entity serverJID;
 
+    // The visited subscribers per node
+    private Map<String, List<Entity>> subscribers = new LinkedHashMap<String, List<Entity>>();
+
     /**
      * Initialize the visitor with the StanzaRelay and payload.
      * @param stanzaRelay relay for sending the messages.
@@ -63,28 +73,44 @@ public class SubscriberPayloadNotificationVisitor implements SubscriberVisitor {
     }
 
     /**
-     * Send each visited subscriber a notification with the configured payload included.
+     * Collect each visited subscriber for a notification with the configured payload included.
      * 
      * @param nodeJID the node from which the message comes from
      * @param subscriptionID the subscription ID
      * @param subscriber the receiver of the notification
      */
     public void visit(String nodeName, String subscriptionID, Entity subscriber) {
-        Stanza event = createMessageEventStanza(nodeName, subscriber, "en", item); // TODO extract the hardcoded "en"
+        List<Entity> nodeSubscribers = subscribers.get(nodeName);
+        if (nodeSubscribers == null) {
+            nodeSubscribers = new ArrayList<Entity>();
+            subscribers.put(nodeName, nodeSubscribers);
+        }
+        nodeSubscribers.add(subscriber);
+    }
+
+    /**
+     * Send each visited subscriber the notification. The stanza is built once per node, the relay
+     * addresses it to the subscribers.
+     */
+    public void send() {
+        for (Map.Entry<String, List<Entity>> entry : subscribers.entrySet()) {
+            Stanza event = createMessageEventStanza(entry.getKey(), null, "en", item); // TODO extract the hardcoded "en"
 
-        if(!context.relay(event, dfs)) {
-            if (logger.isTraceEnabled()) {
-                logger.trace("Couldn't deliver message to " + subscriber.getFullQualifiedName());
+            if(!context.multicast(entry.getValue(), event, dfs)) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Couldn't deliver message to all subscribers of " + entry.getKey());
+                }
+                // TODO we don't care - do we?
             }
-            // TODO we don't care - do we?
         }
+        subscribers.clear();
     }
 
     /**
      * Creates the stanza for notifying the subscriber including payload.
      * 
      * @param from the node JID which sends the notification
-     * @param to the receiver of the notification (subscriber)
+     * @param to the receiver of the notification (subscriber), null if the stanza is a template for many subscribers
      * @param lang the language of the stanza text-content.
      * @param item the payload as XMLElement
      * @return the prepared Stanza object.
@@ -92,7 +118,8 @@ public class SubscriberPayloadNotificationVisitor implements SubscriberVisitor {
     private Stanza createMessageEventStanza(String nodeName, Entity to, String lang, XMLElement item) {
         StanzaBuilder stanzaBuilder = new StanzaBuilder("message", NamespaceURIs.JABBER_CLIENT);
         stanzaBuilder.addAttribute("from", serverJID.getFullQualifiedName());
-        stanzaBuilder.addAttribute("to", to.getFullQualifiedName());
+        if (to != null)
+            stanzaBuilder.addAttribute("to", to.getFullQualifiedName());
         stanzaBuilder.addAttribute(NamespaceURIs.XML, "lang", lang);
         stanzaBuilder.startInnerElement("event", NamespaceURIs.XEP0060_PUBSUB_EVENT);
         stanzaBuilder.startInnerElement("items", NamespaceURIs.XEP0060_PUBSUB_EVENT);
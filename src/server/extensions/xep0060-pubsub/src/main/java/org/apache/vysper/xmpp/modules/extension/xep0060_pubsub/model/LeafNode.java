@@ -196,8 +196,10 @@ public class LeafNode {
      * @param item the payload of the message.
      */
     protected void sendMessageToSubscriber(ServerRuntimeContext context, XMLElement item) {
-        storage.acceptForEachSubscriber(name, new SubscriberPayloadNotificationVisitor(context,serviceConfiguration
-                .getDomainJID(), item));
+        SubscriberPayloadNotificationVisitor notificationVisitor = new SubscriberPayloadNotificationVisitor(context,
+                serviceConfiguration.getDomainJID(), item);
+        storage.acceptForEachSubscriber(name, notificationVisitor);
+        notificationVisitor.send();
     }
 
     /**
@@ -1,12 +1,18 @@
 package org.apache.vysper.xmpp.extension.xep0114;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import org.apache.mina.core.session.IoSession;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.MulticastStanzaRelay;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.delivery.inbound.RelayResult;
 import org.apache.vysper.xmpp.extension.xep0114.handler.HandshakeHandler;
 import org.apache.vysper.xmpp.extension.xep0114.handler.StreamStartHandler;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
@@ -16,6 +22,7 @@ import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.ServerRuntimeContextAdapter;
 import org.apache.vysper.xmpp.server.SessionContext;
 import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaRenderCache;
 
 public class ExternalComponentContext extends ServerRuntimeContextAdapter {
 	protected ExternalComponent component;
@@ -73,4 +80,20 @@ public class ExternalComponentContext extends ServerRuntimeContextAdapter {
 	public boolean relay(Stanza stanza, DeliveryFailureStrategy failureStrategy) {
 		return component.relay(stanza, failureStrategy);
 	}
+
+	@Override
+	public CompletionStage<RelayResult> relayAsync(Stanza stanza, DeliveryFailureStrategy failureStrategy) {
+		// the component writes synchronously
+		return CompletableFuture.completedFuture(component.relay(stanza, failureStrategy)?new RelayResult():new RelayResult(new DeliveryException("unable to relay to "+stanza.getTo())));
+	}
+
+	@Override
+	public boolean multicast(Collection<Entity> receivers, Stanza template, DeliveryFailureStrategy failureStrategy) {
+		boolean relayed=true;
+		StanzaRenderCache.share(template, receivers.size());
+		for(Entity receiver:receivers) {
+			relayed&=component.relay(MulticastStanzaRelay.addressTo(template, receiver), failureStrategy);
+		}
+		return relayed;
+	}
 }
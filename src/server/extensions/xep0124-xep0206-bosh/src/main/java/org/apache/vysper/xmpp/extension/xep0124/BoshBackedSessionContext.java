@@ -24,13 +24,13 @@ import java.util.Queue;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
-import org.apache.vysper.xml.fragment.Renderer;
 import org.apache.vysper.xml.fragment.XMLElement;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
 import org.apache.vysper.xmpp.server.AbstractSessionContext;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.SessionState;
 import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaRenderCache;
 import org.apache.vysper.xmpp.writer.StanzaWriter;
 import org.eclipse.jetty.continuation.Continuation;
 import org.eclipse.jetty.continuation.ContinuationListener;
@@ -631,7 +631,7 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
         if (ack != null) {
             stanza = boshHandler.addAttribute(stanza, "ack", ack.toString());
         }
-        byte[] content = new Renderer(stanza).getComplete().getBytes();
+        byte[] content = StanzaRenderCache.render(stanza);
         return new BoshResponse(contentType, content);
     }
 